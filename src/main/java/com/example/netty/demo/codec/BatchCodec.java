@@ -0,0 +1,139 @@
+package com.example.netty.demo.codec;
+
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Body layout of BATCH_REQUEST / BATCH_RESPONSE frames. The outer {@link DemoMessage} carries the
+ * batch id, deadline, priority and trace context once for all sub-requests.
+ *
+ * <pre>
+ * BATCH_REQUEST  body: mode(1) + count(4) + count * [subId(8) + len(4) + bytes(len)]
+ * BATCH_RESPONSE body: mode(1) + count(4) + count * [subId(8) + status(1) + len(4) + bytes(len)]
+ * </pre>
+ */
+public final class BatchCodec {
+
+    public static final byte MODE_PARALLEL = 0;
+    public static final byte MODE_ORDERED = 1;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_DROPPED = 1;
+    public static final byte STATUS_ERROR = 2;
+    /** The answer was produced but did not fit in the BATCH_RESPONSE frame; body is empty. */
+    public static final byte STATUS_TOO_LARGE = 3;
+
+    public static final int MAX_ENTRIES = 64 * 1024;
+
+    public static final int HEADER_BYTES = 1 + 4;
+    public static final int REQUEST_ENTRY_OVERHEAD = 8 + 4;
+    public static final int RESPONSE_ENTRY_OVERHEAD = 8 + 1 + 4;
+
+    private BatchCodec() {
+    }
+
+    public static final class Entry {
+        private final long id;
+        private final byte status;
+        private final byte[] body;
+
+        public Entry(long id, byte status, byte[] body) {
+            this.id = id;
+            this.status = status;
+            this.body = body;
+        }
+
+        public long id() {
+            return id;
+        }
+
+        public byte status() {
+            return status;
+        }
+
+        public byte[] body() {
+            return body;
+        }
+    }
+
+    public static final class Batch {
+        private final boolean ordered;
+        private final List<Entry> entries;
+
+        public Batch(boolean ordered, List<Entry> entries) {
+            this.ordered = ordered;
+            this.entries = entries;
+        }
+
+        public boolean ordered() {
+            return ordered;
+        }
+
+        public List<Entry> entries() {
+            return entries;
+        }
+    }
+
+    /**
+     * Encoded body size; compare with {@link DemoMessage#MAX_BODY} before sending.
+     */
+    public static long encodedSize(List<Entry> entries, boolean withStatus) {
+        long size = HEADER_BYTES;
+        for (Entry e : entries) {
+            size += (withStatus ? RESPONSE_ENTRY_OVERHEAD : REQUEST_ENTRY_OVERHEAD) + e.body.length;
+        }
+        return size;
+    }
+
+    public static byte[] encode(Batch batch, boolean withStatus) {
+        long size = encodedSize(batch.entries, withStatus);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Batch too large: " + size + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        buf.put(batch.ordered ? MODE_ORDERED : MODE_PARALLEL);
+        buf.putInt(batch.entries.size());
+        for (Entry e : batch.entries) {
+            buf.putLong(e.id);
+            if (withStatus) {
+                buf.put(e.status);
+            }
+            buf.putInt(e.body.length);
+            buf.put(e.body);
+        }
+        return buf.array();
+    }
+
+    public static Batch decode(byte[] body, boolean withStatus) {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        try {
+            byte mode = buf.get();
+            if (mode != MODE_PARALLEL && mode != MODE_ORDERED) {
+                throw new CorruptedFrameException("Bad batch mode: " + mode);
+            }
+            int count = buf.getInt();
+            if (count < 0 || count > MAX_ENTRIES) {
+                throw new CorruptedFrameException("Bad batch count: " + count);
+            }
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = buf.getLong();
+                byte status = withStatus ? buf.get() : STATUS_OK;
+                int len = buf.getInt();
+                if (len < 0 || len > buf.remaining()) {
+                    throw new CorruptedFrameException("Bad batch entry len: " + len);
+                }
+                byte[] entryBody = new byte[len];
+                buf.get(entryBody);
+                entries.add(new Entry(id, status, entryBody));
+            }
+            return new Batch(mode == MODE_ORDERED, entries);
+        } catch (BufferUnderflowException e) {
+            throw new CorruptedFrameException("Truncated batch body", e);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.netty.demo.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.ResourceLeakDetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic soak run of the inbound framing + {@link DemoMessageDecoder} on an
+ * {@link EmbeddedChannel}. Valid frames of random size (up to the 1 MB cap), in the negotiated layout
+ * and in the version 1 layout a not-yet-upgraded peer writes, are mixed with corrupt and oversized ones, the byte stream is cut into random split/coalesced chunks, and the run checks:
+ * <ul>
+ *   <li>every valid frame decodes to exactly what was encoded, in order;</li>
+ *   <li>every corrupt frame surfaces as exactly one {@link CorruptedFrameException} or
+ *       {@link TooLongFrameException} and does not disturb the frames around it;</li>
+ *   <li>the frame decoder's cumulation stays bounded and no input buffer leaks;</li>
+ * </ul>
+ * and reports decode throughput on a clean stream.
+ *
+ * <pre>
+ * java ... com.example.netty.demo.codec.DecoderSoak [seed] [frames]
+ * </pre>
+ * Exits with status 1 on the first violated check, printing the seed to reproduce it.
+ */
+public final class DecoderSoak {
+
+    private static final int MAX_FRAME = 1024 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    /** A session after the handshake, without compression so the encoded bytes stay predictable. */
+    private static final ProtocolSession SESSION = new ProtocolSession(DemoMessage.MAX_VERSION,
+        ProtocolSession.FEATURE_TRACE | ProtocolSession.FEATURE_BATCH);
+    private static final DemoMessage.MessageType[] LEGACY_TYPES = {
+        DemoMessage.MessageType.PING, DemoMessage.MessageType.PONG, DemoMessage.MessageType.REQUEST,
+        DemoMessage.MessageType.RESPONSE, DemoMessage.MessageType.HELLO
+    };
+
+    private DecoderSoak() {
+    }
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42L;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+
+        Random random = new Random(seed);
+        robustness(random, frames, seed);
+
+        // paranoid leak tracking records every buffer access; it would dominate the timing
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.DISABLED);
+        throughput(new Random(seed), frames);
+    }
+
+    private static void robustness(Random random, int frames, long seed) {
+        List<DemoMessage> expected = new ArrayList<>();
+        int expectedErrors = 0;
+        ByteBuf stream = Unpooled.buffer();
+
+        for (int i = 0; i < frames; i++) {
+            int roll = random.nextInt(1000);
+            if (roll < 50) {
+                writeCorrupt(stream, random);
+                expectedErrors++;
+            } else if (roll < 52) {
+                // length field above the cap: the frame decoder rejects and skips it
+                int len = MAX_FRAME + 1 + random.nextInt(1024);
+                stream.writeInt(len);
+                stream.writeZero(len);
+                expectedErrors++;
+            } else if (roll < 100) {
+                // written by a peer that has not upgraded yet; the upgraded decoder still reads it
+                DemoMessage msg = randomLegacyMessage(random, i);
+                expected.add(msg);
+                stream.writeBytes(encode(msg, ProtocolSession.LEGACY));
+            } else {
+                DemoMessage msg = randomMessage(random, i, random.nextInt(500) == 0);
+                expected.add(msg);
+                stream.writeBytes(encode(msg));
+            }
+        }
+
+        Collector collector = new Collector();
+        BoundedFrameDecoder frameDecoder = new BoundedFrameDecoder();
+        EmbeddedChannel ch = new EmbeddedChannel(frameDecoder, new DemoMessageDecoder(SESSION), collector);
+
+        List<ByteBuf> chunks = new ArrayList<>();
+        int maxCumulation = 0;
+        while (stream.isReadable()) {
+            int size = chunkSize(random, stream.readableBytes());
+            ByteBuf chunk = Unpooled.copiedBuffer(stream.readSlice(size));
+            chunks.add(chunk);
+            ch.writeInbound(chunk);
+            maxCumulation = Math.max(maxCumulation, frameDecoder.cumulated());
+        }
+        stream.release();
+        ch.finish();
+
+        check(collector.messages.size() == expected.size(), seed,
+            "decoded " + collector.messages.size() + " frames, expected " + expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            check(same(expected.get(i), collector.messages.get(i)), seed, "frame " + i + " differs");
+        }
+        check(collector.errors == expectedErrors, seed,
+            "saw " + collector.errors + " frame errors, expected " + expectedErrors);
+        check(collector.otherErrors.isEmpty(), seed, "unexpected errors: " + collector.otherErrors);
+        check(maxCumulation <= MAX_FRAME + 4 + MAX_CHUNK, seed, "cumulation grew to " + maxCumulation);
+        for (ByteBuf chunk : chunks) {
+            check(chunk.refCnt() == 0, seed, "input chunk leaked, refCnt=" + chunk.refCnt());
+        }
+
+        System.out.println("robustness ok: seed=" + seed + " valid=" + expected.size() + " corrupt=" + expectedErrors
+            + " chunks=" + chunks.size() + " maxCumulation=" + maxCumulation);
+    }
+
+    private static void throughput(Random random, int frames) {
+        ByteBuf stream = Unpooled.buffer();
+        for (int i = 0; i < frames; i++) {
+            stream.writeBytes(encode(randomMessage(random, i, false)));
+        }
+        int totalBytes = stream.readableBytes();
+
+        for (int round = 0; round < 5; round++) {
+            Collector collector = new Collector();
+            EmbeddedChannel ch = new EmbeddedChannel(new BoundedFrameDecoder(), new DemoMessageDecoder(SESSION),
+                collector);
+            ByteBuf copy = stream.copy();
+            long start = System.nanoTime();
+            while (copy.isReadable()) {
+                ch.writeInbound(copy.readRetainedSlice(Math.min(copy.readableBytes(), MAX_CHUNK)));
+            }
+            long elapsed = System.nanoTime() - start;
+            copy.release();
+            ch.finish();
+
+            // the first rounds are JIT warm-up
+            if (round >= 3) {
+                double seconds = elapsed / 1e9;
+                System.out.printf("throughput: %,d frames in %.1f ms, %.0f frames/s, %.1f MB/s%n",
+                    collector.messages.size(), seconds * 1000, collector.messages.size() / seconds,
+                    totalBytes / seconds / (1024 * 1024));
+            }
+        }
+        stream.release();
+    }
+
+    private static DemoMessage randomMessage(Random random, int i, boolean large) {
+        int size = large ? random.nextInt(MAX_FRAME - 64) : random.nextInt(512);
+        byte[] body = new byte[size];
+        random.nextBytes(body);
+        DemoMessage.MessageType[] types = DemoMessage.MessageType.values();
+        DemoMessage.Priority[] priorities = DemoMessage.Priority.values();
+        return new DemoMessage(types[random.nextInt(types.length)], priorities[random.nextInt(priorities.length)],
+            i, random.nextInt(10_000), body);
+    }
+
+    /** Only the fields and frame types the version 1 layout carries. */
+    private static DemoMessage randomLegacyMessage(Random random, int i) {
+        byte[] body = new byte[random.nextInt(512)];
+        random.nextBytes(body);
+        return new DemoMessage(LEGACY_TYPES[random.nextInt(LEGACY_TYPES.length)], i, body);
+    }
+
+    private static void writeCorrupt(ByteBuf stream, Random random) {
+        byte[] frame = encodeFrameOnly(randomMessage(random, -1, false));
+        switch (random.nextInt(6)) {
+            case 0:
+                frame[0] ^= 0x5A;                      // magic
+                break;
+            case 1:
+                frame[2] = (byte) (DemoMessage.MAX_VERSION + 1);
+                break;
+            case 2:
+                frame[3] = (byte) 0x7F;                // unknown msgType
+                break;
+            case 3:
+                frame[4] = (byte) 0x7F;                // unknown priority
+                break;
+            case 4:
+                // truncated: keep a valid length prefix but drop the tail of the body/header
+                frame = Arrays.copyOf(frame, random.nextInt(frame.length));
+                break;
+            default:
+                frame[5] |= DemoMessage.FLAG_TRACE;    // claims a trace extension it does not have
+                break;
+        }
+        stream.writeInt(frame.length);
+        stream.writeBytes(frame);
+    }
+
+    private static ByteBuf encode(DemoMessage msg) {
+        return encode(msg, SESSION);
+    }
+
+    private static ByteBuf encode(DemoMessage msg, ProtocolSession session) {
+        EmbeddedChannel ch = new EmbeddedChannel(new LengthFieldPrepender(4), new DemoMessageEncoder(session));
+        ch.writeOutbound(msg);
+        ByteBuf out = Unpooled.buffer();
+        for (ByteBuf part; (part = ch.readOutbound()) != null; ) {
+            out.writeBytes(part);
+            part.release();
+        }
+        ch.finish();
+        return out;
+    }
+
+    private static byte[] encodeFrameOnly(DemoMessage msg) {
+        ByteBuf framed = encode(msg);
+        framed.skipBytes(4);
+        byte[] frame = new byte[framed.readableBytes()];
+        framed.readBytes(frame);
+        framed.release();
+        return frame;
+    }
+
+    // mostly small splits, sometimes a large coalesced read, occasionally single bytes
+    private static int chunkSize(Random random, int remaining) {
+        int roll = random.nextInt(10);
+        int size;
+        if (roll == 0) {
+            size = 1;
+        } else if (roll < 7) {
+            size = 1 + random.nextInt(256);
+        } else {
+            size = 1 + random.nextInt(MAX_CHUNK);
+        }
+        return Math.min(size, remaining);
+    }
+
+    private static boolean same(DemoMessage a, DemoMessage b) {
+        return a.type() == b.type() && a.priority() == b.priority() && a.requestId() == b.requestId()
+            && a.timeoutMs() == b.timeoutMs() && Arrays.equals(a.body(), b.body());
+    }
+
+    private static void check(boolean ok, long seed, String what) {
+        if (!ok) {
+            System.err.println("SOAK FAILED (seed=" + seed + "): " + what);
+            System.exit(1);
+        }
+    }
+
+    private static final class BoundedFrameDecoder extends LengthFieldBasedFrameDecoder {
+        BoundedFrameDecoder() {
+            super(MAX_FRAME, 0, 4, 0, 4);
+        }
+
+        int cumulated() {
+            ByteBuf buf = internalBuffer();
+            return buf.readableBytes();
+        }
+    }
+
+    private static final class Collector extends ChannelInboundHandlerAdapter {
+        final List<DemoMessage> messages = new ArrayList<>();
+        final List<Throwable> otherErrors = new ArrayList<>();
+        int errors;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            messages.add((DemoMessage) msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (cause instanceof CorruptedFrameException || cause instanceof TooLongFrameException) {
+                errors++;
+            } else {
+                otherErrors.add(cause);
+            }
+        }
+    }
+}
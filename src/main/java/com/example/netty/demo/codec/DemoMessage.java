@@ -1,17 +1,56 @@
 package com.example.netty.demo.codec;
 
+import com.example.netty.demo.trace.TraceContext;
+
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 public final class DemoMessage {
 
     public static final short MAGIC = (short) 0xCAFE;
-    public static final byte VERSION = 1;
+    /**
+     * Original header: magic + version + msgType + requestId + bodyLen. Version 2 added timeoutMs, 3 the
+     * priority byte and 4 the flags byte with the trace extension. Version 1 frames are always decoded,
+     * and every connection writes them until the HELLO handshake upgrades it, so v1 builds and newer
+     * ones can share a fleet. Versions 2 and 3 are rejected instead of being misparsed.
+     */
+    public static final byte LEGACY_VERSION = 1;
+    /** Lowest version a HELLO handshake can agree on: header with timeoutMs, priority and flags. */
+    public static final byte VERSION = 4;
+    public static final byte MIN_VERSION = VERSION;
+    /** Version 5 adds deflate-compressed bodies ({@link #FLAG_COMPRESSED}). */
+    public static final byte VERSION_COMPRESSION = 5;
+    public static final byte MAX_VERSION = VERSION_COMPRESSION;
+
+    /**
+     * A version 1 peer knows no HELLO frame, so in the v1 layout HELLO travels as a PING whose body is
+     * this marker followed by the HELLO body. A v1 peer answers it with a plain PONG.
+     */
+    public static final int LEGACY_HELLO_MARKER = 0x48454C4F;
+
+    /** Largest frame, without the length field, that the length-field decoders accept. */
+    public static final int MAX_FRAME = 1024 * 1024;
+    /** Fixed header + trace extension + bodyLen. */
+    public static final int MAX_HEADER = 2 + 1 + 1 + 1 + 1 + 8 + 4 + 16 + 4;
+    /** Largest body that still fits in one frame whatever the header carries. */
+    public static final int MAX_BODY = MAX_FRAME - MAX_HEADER;
+
+    public static final byte FLAG_TRACE = 0x01;
+    public static final byte FLAG_SAMPLED = 0x02;
+    public static final byte FLAG_COMPRESSED = 0x04;
 
     public enum MessageType {
         PING((byte) 1),
         PONG((byte) 2),
         REQUEST((byte) 3),
-        RESPONSE((byte) 4);
+        RESPONSE((byte) 4),
+        GOAWAY((byte) 5),
+        CANCEL((byte) 6),
+        BATCH_REQUEST((byte) 7),
+        BATCH_RESPONSE((byte) 8),
+        HELLO((byte) 9),
+        ERROR((byte) 10),
+        FILE_TRANSFER((byte) 11);
 
         private final byte code;
 
@@ -33,41 +72,200 @@ public final class DemoMessage {
         }
     }
 
+    /**
+     * Scheduling class of a request on the server. Control frames (PING/PONG/GOAWAY/CANCEL) never
+     * queue behind requests regardless of this value.
+     */
+    public enum Priority {
+        HIGH((byte) 0),
+        NORMAL((byte) 1),
+        BULK((byte) 2);
+
+        private final byte code;
+
+        Priority(byte code) {
+            this.code = code;
+        }
+
+        public byte code() {
+            return code;
+        }
+
+        public static Priority fromCode(byte code) {
+            for (Priority value : values()) {
+                if (value.code == code) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Unknown priority=" + code);
+        }
+    }
+
     private final MessageType type;
+    private final Priority priority;
     private final long requestId;
+    private final int timeoutMs;
     private final byte[] body;
+    private final TraceContext trace;
 
     public DemoMessage(MessageType type, long requestId, byte[] body) {
+        this(type, requestId, 0, body);
+    }
+
+    /**
+     * @param timeoutMs remaining time budget of the call when the frame was written; 0 means no deadline
+     */
+    public DemoMessage(MessageType type, long requestId, int timeoutMs, byte[] body) {
+        this(type, Priority.NORMAL, requestId, timeoutMs, body);
+    }
+
+    public DemoMessage(MessageType type, Priority priority, long requestId, int timeoutMs, byte[] body) {
+        this(type, priority, requestId, timeoutMs, body, null);
+    }
+
+    /**
+     * @param trace optional trace context written into the header extension; {@code null} when untraced
+     */
+    public DemoMessage(MessageType type, Priority priority, long requestId, int timeoutMs, byte[] body,
+                       TraceContext trace) {
         this.type = type;
+        this.priority = priority;
         this.requestId = requestId;
+        this.timeoutMs = timeoutMs;
         this.body = body;
+        this.trace = trace;
     }
 
     public static DemoMessage ping() {
-        return new DemoMessage(MessageType.PING, 0, new byte[0]);
+        return new DemoMessage(MessageType.PING, Priority.HIGH, 0, 0, new byte[0]);
     }
 
     public static DemoMessage pong() {
-        return new DemoMessage(MessageType.PONG, 0, new byte[0]);
+        return new DemoMessage(MessageType.PONG, Priority.HIGH, 0, 0, new byte[0]);
+    }
+
+    /**
+     * Handshake frame. Body: minVersion(1) + maxVersion(1) + features(4). The server answers with
+     * min == max == the chosen version and the agreed features.
+     */
+    public static DemoMessage hello(byte minVersion, byte maxVersion, int features) {
+        byte[] body = ByteBuffer.allocate(6).put(minVersion).put(maxVersion).putInt(features).array();
+        return new DemoMessage(MessageType.HELLO, Priority.HIGH, 0, 0, body);
+    }
+
+    public static DemoMessage goAway() {
+        return new DemoMessage(MessageType.GOAWAY, Priority.HIGH, 0, 0, new byte[0]);
     }
 
     public static DemoMessage request(long requestId, String body) {
         return new DemoMessage(MessageType.REQUEST, requestId, body.getBytes(StandardCharsets.UTF_8));
     }
 
+    public static DemoMessage request(long requestId, String body, long timeoutMs) {
+        return request(requestId, body, timeoutMs, Priority.NORMAL);
+    }
+
+    public static DemoMessage request(long requestId, String body, long timeoutMs, Priority priority) {
+        return request(requestId, body, timeoutMs, priority, null);
+    }
+
+    public static DemoMessage request(long requestId, String body, long timeoutMs, Priority priority,
+                                      TraceContext trace) {
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeoutMs));
+        return new DemoMessage(MessageType.REQUEST, priority, requestId, budget,
+            body.getBytes(StandardCharsets.UTF_8), trace);
+    }
+
+    public static DemoMessage cancel(long requestId) {
+        return new DemoMessage(MessageType.CANCEL, Priority.HIGH, requestId, 0, new byte[0]);
+    }
+
     public static DemoMessage response(long requestId, String body) {
-        return new DemoMessage(MessageType.RESPONSE, requestId, body.getBytes(StandardCharsets.UTF_8));
+        return response(requestId, body, null);
+    }
+
+    public static DemoMessage response(long requestId, String body, TraceContext trace) {
+        return new DemoMessage(MessageType.RESPONSE, Priority.NORMAL, requestId, 0,
+            body.getBytes(StandardCharsets.UTF_8), trace);
+    }
+
+    /**
+     * Failed REQUEST; the body is the server's error message.
+     */
+    public static DemoMessage error(long requestId, String message, TraceContext trace) {
+        return new DemoMessage(MessageType.ERROR, Priority.NORMAL, requestId, 0,
+            message.getBytes(StandardCharsets.UTF_8), trace);
+    }
+
+    /**
+     * Asks the server for a file below its file root. Body: the relative path, UTF-8.
+     */
+    public static DemoMessage fileRequest(long requestId, String path, long timeoutMs) {
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeoutMs));
+        return new DemoMessage(MessageType.FILE_TRANSFER, Priority.BULK, requestId, budget,
+            path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Server's answer to {@link #fileRequest}. Body: fileLength(8). Exactly that many raw bytes follow
+     * the frame, outside any framing; see {@link FileTransferFrameDecoder}.
+     */
+    public static DemoMessage fileHeader(long requestId, long fileLength) {
+        return new DemoMessage(MessageType.FILE_TRANSFER, Priority.BULK, requestId, 0,
+            ByteBuffer.allocate(8).putLong(fileLength).array());
+    }
+
+    public static DemoMessage batchRequest(long batchId, BatchCodec.Batch batch, long timeoutMs, Priority priority,
+                                           TraceContext trace) {
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeoutMs));
+        return new DemoMessage(MessageType.BATCH_REQUEST, priority, batchId, budget,
+            BatchCodec.encode(batch, false), trace);
+    }
+
+    public static DemoMessage batchResponse(long batchId, BatchCodec.Batch batch, TraceContext trace) {
+        return new DemoMessage(MessageType.BATCH_RESPONSE, Priority.NORMAL, batchId, 0,
+            BatchCodec.encode(batch, true), trace);
+    }
+
+    /**
+     * Same frame with a different trace context; used when the message object itself crosses to the peer.
+     */
+    public DemoMessage withTrace(TraceContext newTrace) {
+        return new DemoMessage(type, priority, requestId, timeoutMs, body, newTrace);
     }
 
     public MessageType type() {
         return type;
     }
 
+    public Priority priority() {
+        return priority;
+    }
+
     public long requestId() {
         return requestId;
     }
 
+    public int timeoutMs() {
+        return timeoutMs;
+    }
+
+    public boolean hasDeadline() {
+        return timeoutMs > 0;
+    }
+
     public byte[] body() {
         return body;
     }
+
+    public TraceContext trace() {
+        return trace;
+    }
+
+    public byte flags() {
+        if (trace == null) {
+            return 0;
+        }
+        return trace.sampled() ? (byte) (FLAG_TRACE | FLAG_SAMPLED) : FLAG_TRACE;
+    }
 }
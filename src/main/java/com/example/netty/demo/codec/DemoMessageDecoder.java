@@ -1,35 +1,171 @@
 package com.example.netty.demo.codec;
 
+import com.example.netty.demo.trace.Stage;
+import com.example.netty.demo.trace.TraceContext;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
 
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
-public final class DemoMessageDecoder extends ReplayingDecoder<Void> {
+/**
+ * Decodes one complete frame as delivered by the upstream {@code LengthFieldBasedFrameDecoder}.
+ * Any malformed frame fails with {@link CorruptedFrameException}; because framing is done upstream,
+ * only that frame is lost and the next one decodes normally.
+ */
+public final class DemoMessageDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+    private final ProtocolSession session;
+    private final Inflater inflater;
+
+    /**
+     * Decoder used before the handshake: accepts only the version 1 layout.
+     */
+    public DemoMessageDecoder() {
+        this(ProtocolSession.LEGACY);
+    }
+
+    /**
+     * Decoder for the variant agreed by the handshake; installed in place of the legacy decoder. It still
+     * accepts version 1 frames the peer wrote before it saw the handshake answer.
+     */
+    public DemoMessageDecoder(ProtocolSession session) {
+        this.session = session;
+        this.inflater = session.has(ProtocolSession.FEATURE_COMPRESSION) ? new Inflater() : null;
+    }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        try {
+            out.add(decodeFrame(in));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new CorruptedFrameException(e.getMessage(), e);
+        }
+    }
+
+    private DemoMessage decodeFrame(ByteBuf in) {
         short magic = in.readShort();
         if (magic != DemoMessage.MAGIC) {
             throw new IllegalArgumentException("Bad magic: " + Integer.toHexString(magic & 0xFFFF));
         }
 
         byte version = in.readByte();
-        if (version != DemoMessage.VERSION) {
+        if (version == DemoMessage.LEGACY_VERSION) {
+            return decodeLegacy(in);
+        }
+        if (version < DemoMessage.MIN_VERSION) {
+            throw new IllegalArgumentException("Unsupported version: " + version
+                + " (only " + DemoMessage.LEGACY_VERSION + " and " + DemoMessage.MIN_VERSION + ".."
+                + DemoMessage.MAX_VERSION + " are defined)");
+        }
+        if (version > session.version()) {
             throw new IllegalArgumentException("Bad version: " + version);
         }
 
         DemoMessage.MessageType type = DemoMessage.MessageType.fromCode(in.readByte());
+        DemoMessage.Priority priority = DemoMessage.Priority.fromCode(in.readByte());
+        byte flags = in.readByte();
         long requestId = in.readLong();
+        int timeoutMs = in.readInt();
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("Bad timeoutMs: " + timeoutMs);
+        }
+
+        TraceContext trace = null;
+        if ((flags & DemoMessage.FLAG_TRACE) != 0) {
+            long traceId = in.readLong();
+            long spanId = in.readLong();
+            trace = new TraceContext(traceId, spanId, (flags & DemoMessage.FLAG_SAMPLED) != 0);
+            trace.stamp(Stage.DECODE_START);
+        }
+
         int bodyLen = in.readInt();
-        if (bodyLen < 0 || bodyLen > 1024 * 1024) {
+        if (bodyLen < 0 || bodyLen > DemoMessage.MAX_BODY) {
             throw new IllegalArgumentException("Bad bodyLen: " + bodyLen);
         }
+        if (bodyLen != in.readableBytes()) {
+            throw new IllegalArgumentException("bodyLen " + bodyLen + " but frame has " + in.readableBytes() + " bytes left");
+        }
 
         byte[] body = new byte[bodyLen];
         in.readBytes(body);
 
-        out.add(new DemoMessage(type, requestId, body));
+        if ((flags & DemoMessage.FLAG_COMPRESSED) != 0) {
+            if (inflater == null || version < DemoMessage.VERSION_COMPRESSION) {
+                throw new IllegalArgumentException("Compressed body not negotiated, version=" + version);
+            }
+            body = inflate(body);
+        }
+
+        if (trace != null) {
+            trace.stamp(Stage.DECODE_END);
+        }
+        return new DemoMessage(type, priority, requestId, timeoutMs, body, trace);
+    }
+
+    /**
+     * Version 1 layout: msgType + requestId + bodyLen + body after magic and version. The fields it
+     * lacks get their defaults: no deadline, NORMAL priority, no trace.
+     */
+    private static DemoMessage decodeLegacy(ByteBuf in) {
+        DemoMessage.MessageType type = DemoMessage.MessageType.fromCode(in.readByte());
+        long requestId = in.readLong();
+        int bodyLen = in.readInt();
+        if (bodyLen < 0 || bodyLen > DemoMessage.MAX_BODY) {
+            throw new IllegalArgumentException("Bad bodyLen: " + bodyLen);
+        }
+        if (bodyLen != in.readableBytes()) {
+            throw new IllegalArgumentException("bodyLen " + bodyLen + " but frame has " + in.readableBytes() + " bytes left");
+        }
+
+        if (type == DemoMessage.MessageType.PING && bodyLen >= 4
+            && in.getInt(in.readerIndex()) == DemoMessage.LEGACY_HELLO_MARKER) {
+            in.skipBytes(4);
+            type = DemoMessage.MessageType.HELLO;
+            bodyLen -= 4;
+        }
+        byte[] body = new byte[bodyLen];
+        in.readBytes(body);
+        return new DemoMessage(type, requestId, body);
+    }
+
+    private byte[] inflate(byte[] compressed) {
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] buf = new byte[Math.min(DemoMessage.MAX_BODY, Math.max(64, compressed.length * 4))];
+        int len = 0;
+        try {
+            while (!inflater.finished()) {
+                if (len == buf.length) {
+                    if (buf.length == DemoMessage.MAX_BODY) {
+                        throw new IllegalArgumentException("Inflated body exceeds " + DemoMessage.MAX_BODY);
+                    }
+                    byte[] bigger = new byte[Math.min(DemoMessage.MAX_BODY, buf.length * 2)];
+                    System.arraycopy(buf, 0, bigger, 0, len);
+                    buf = bigger;
+                }
+                int n = inflater.inflate(buf, len, buf.length - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed body");
+                }
+                len += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed body", e);
+        }
+        byte[] body = new byte[len];
+        System.arraycopy(buf, 0, body, 0, len);
+        return body;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (inflater != null) {
+            inflater.end();
+        }
+        super.handlerRemoved(ctx);
     }
 }
@@ -1,22 +1,142 @@
 package com.example.netty.demo.codec;
 
+import com.example.netty.demo.trace.Stage;
+import com.example.netty.demo.trace.TraceContext;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 
+import java.util.zip.Deflater;
+
 public final class DemoMessageEncoder extends MessageToByteEncoder<DemoMessage> {
 
+    private static final int COMPRESS_THRESHOLD = 1024;
+
+    private final ProtocolSession session;
+    private final Deflater deflater;
+
+    /**
+     * Encoder used before the handshake: writes the version 1 layout every peer can read.
+     */
+    public DemoMessageEncoder() {
+        this(ProtocolSession.LEGACY);
+    }
+
+    /**
+     * Encoder for the variant agreed by the handshake; installed in place of the legacy encoder.
+     */
+    public DemoMessageEncoder(ProtocolSession session) {
+        this.session = session;
+        this.deflater = session.has(ProtocolSession.FEATURE_COMPRESSION) ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, DemoMessage msg, ByteBuf out) {
+        if (session.isLegacy()) {
+            encodeLegacy(msg, out);
+            return;
+        }
         // Frame format (without the outer length field):
-        // magic(2) + version(1) + msgType(1) + requestId(8) + bodyLen(4) + body(n)
+        // magic(2) + version(1) + msgType(1) + priority(1) + flags(1) + requestId(8) + timeoutMs(4)
+        // + [traceId(8) + spanId(8) if FLAG_TRACE] + bodyLen(4) + body(n)
+        TraceContext trace = session.has(ProtocolSession.FEATURE_TRACE) ? msg.trace() : null;
+        if (trace != null) {
+            trace.stamp(Stage.ENCODE_START);
+        }
+
+        boolean handshake = msg.type() == DemoMessage.MessageType.HELLO;
+        byte[] body = msg.body();
+        byte flags = trace != null ? msg.flags() : 0;
+        if (deflater != null && !handshake && body.length >= COMPRESS_THRESHOLD) {
+            byte[] compressed = deflate(body);
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= DemoMessage.FLAG_COMPRESSED;
+            }
+        }
+
         out.writeShort(DemoMessage.MAGIC);
-        out.writeByte(DemoMessage.VERSION);
+        out.writeByte(session.version());
         out.writeByte(msg.type().code());
+        out.writeByte(msg.priority().code());
+        out.writeByte(flags);
         out.writeLong(msg.requestId());
+        out.writeInt(msg.timeoutMs());
+        if (trace != null) {
+            out.writeLong(trace.traceId());
+            out.writeLong(trace.spanId());
+        }
 
-        byte[] body = msg.body();
         out.writeInt(body.length);
         out.writeBytes(body);
+
+        if (trace != null) {
+            trace.stamp(Stage.ENCODE_END);
+        }
+    }
+
+    /**
+     * Version 1 layout: magic(2) + version(1) + msgType(1) + requestId(8) + bodyLen(4) + body(n).
+     * Deadline, priority and trace are dropped. HELLO goes out as a PING carrying
+     * {@link DemoMessage#LEGACY_HELLO_MARKER}, and ERROR as a RESPONSE with the error text, because v1
+     * has neither frame. Any other type has no v1 form and fails the write.
+     */
+    private static void encodeLegacy(DemoMessage msg, ByteBuf out) {
+        DemoMessage.MessageType type = msg.type();
+        byte[] body = msg.body();
+        int bodyLen = body.length;
+        boolean hello = false;
+        switch (type) {
+            case PING:
+            case PONG:
+            case REQUEST:
+            case RESPONSE:
+                break;
+            case HELLO:
+                type = DemoMessage.MessageType.PING;
+                bodyLen += 4;
+                hello = true;
+                break;
+            case ERROR:
+                type = DemoMessage.MessageType.RESPONSE;
+                break;
+            default:
+                throw new EncoderException(type + " cannot be sent in protocol version " + DemoMessage.LEGACY_VERSION
+                    + " (handshake not complete or the peer does not support it)");
+        }
+
+        out.writeShort(DemoMessage.MAGIC);
+        out.writeByte(DemoMessage.LEGACY_VERSION);
+        out.writeByte(type.code());
+        out.writeLong(msg.requestId());
+        out.writeInt(bodyLen);
+        if (hello) {
+            out.writeInt(DemoMessage.LEGACY_HELLO_MARKER);
+        }
+        out.writeBytes(body);
+    }
+
+    private byte[] deflate(byte[] body) {
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+        byte[] buf = new byte[body.length];
+        int len = deflater.deflate(buf);
+        if (!deflater.finished()) {
+            // incompressible: the output would not be smaller anyway
+            return body;
+        }
+        byte[] compressed = new byte[len];
+        System.arraycopy(buf, 0, compressed, 0, len);
+        return compressed;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (deflater != null) {
+            deflater.end();
+        }
+        super.handlerRemoved(ctx);
     }
 }
@@ -0,0 +1,126 @@
+package com.example.netty.demo.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client-side frame decoder that also understands file transfers. A FILE_TRANSFER header frame from
+ * the server announces {@code fileLength} raw bytes that follow it without framing (the server sends
+ * them with {@code sendfile}). Those bytes go straight from the receive buffer into the
+ * {@link FileChannel} registered with {@link #expect}, never through a {@code byte[]}. The header
+ * frame is held back and passed on once the last byte is written, so the handler sees it as
+ * "transfer complete". Bytes for a request nobody waits for any more are discarded.
+ */
+public final class FileTransferFrameDecoder extends LengthFieldBasedFrameDecoder {
+
+    // offsets inside a frame with the length field stripped; see DemoMessageEncoder
+    private static final int TYPE_OFFSET = 3;
+    private static final int FLAGS_OFFSET = 5;
+    private static final int REQUEST_ID_OFFSET = 6;
+    private static final int BODY_LEN_OFFSET = 18;
+    private static final int TRACE_LENGTH = 16;
+
+    // registered by callers on any thread, taken on the event loop
+    private final Map<Long, FileChannel> targets = new ConcurrentHashMap<>();
+
+    // event loop only
+    private ByteBuf pendingHeader;
+    private FileChannel target;
+    private long remaining;
+    private long position;
+
+    public FileTransferFrameDecoder(int maxFrameLength) {
+        super(maxFrameLength, 0, 4, 0, 4);
+    }
+
+    /**
+     * Routes the bytes of the file answering {@code requestId} into {@code target}, from its position 0.
+     */
+    public void expect(long requestId, FileChannel target) {
+        targets.put(requestId, target);
+    }
+
+    /**
+     * Stops routing bytes for {@code requestId}; any that still arrive are discarded.
+     */
+    public void forget(long requestId) {
+        targets.remove(requestId);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (pendingHeader != null) {
+            return receive(in);
+        }
+        Object frame = super.decode(ctx, in);
+        if (!(frame instanceof ByteBuf) || !isFileHeader((ByteBuf) frame)) {
+            return frame;
+        }
+
+        ByteBuf header = (ByteBuf) frame;
+        long requestId = header.getLong(header.readerIndex() + REQUEST_ID_OFFSET);
+        pendingHeader = header;
+        target = targets.remove(requestId);
+        remaining = header.getLong(header.writerIndex() - 8);
+        position = 0;
+        // an empty file completes right away; otherwise the next call starts on the raw bytes
+        return remaining == 0 ? complete() : null;
+    }
+
+    private Object receive(ByteBuf in) {
+        int n = (int) Math.min(remaining, in.readableBytes());
+        if (n > 0) {
+            if (target != null) {
+                try {
+                    int written = 0;
+                    while (written < n) {
+                        written += in.getBytes(in.readerIndex() + written, target, position + written, n - written);
+                    }
+                } catch (IOException e) {
+                    // the caller gave up and closed the file: drop the rest of the transfer
+                    target = null;
+                }
+            }
+            in.skipBytes(n);
+            position += n;
+            remaining -= n;
+        }
+        return remaining == 0 ? complete() : null;
+    }
+
+    private ByteBuf complete() {
+        ByteBuf header = pendingHeader;
+        pendingHeader = null;
+        target = null;
+        return header;
+    }
+
+    private static boolean isFileHeader(ByteBuf frame) {
+        int start = frame.readerIndex();
+        if (frame.readableBytes() < BODY_LEN_OFFSET + 4 + 8
+            || frame.getShort(start) != DemoMessage.MAGIC
+            || frame.getByte(start + TYPE_OFFSET) != DemoMessage.MessageType.FILE_TRANSFER.code()) {
+            return false;
+        }
+        byte flags = frame.getByte(start + FLAGS_OFFSET);
+        int bodyLenOffset = BODY_LEN_OFFSET + ((flags & DemoMessage.FLAG_TRACE) != 0 ? TRACE_LENGTH : 0);
+        return (flags & DemoMessage.FLAG_COMPRESSED) == 0
+            && frame.readableBytes() == bodyLenOffset + 4 + 8
+            && frame.getInt(start + bodyLenOffset) == 8;
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (pendingHeader != null) {
+            pendingHeader.release();
+            pendingHeader = null;
+        }
+        super.handlerRemoved0(ctx);
+    }
+}
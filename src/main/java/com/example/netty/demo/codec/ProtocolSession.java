@@ -0,0 +1,91 @@
+package com.example.netty.demo.codec;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * Protocol version and optional features agreed for one connection by the HELLO handshake.
+ * Until the handshake completes (or if the peer is a version 1 build that never answers it) both ends
+ * use {@link #LEGACY}.
+ */
+public final class ProtocolSession {
+
+    public static final AttributeKey<ProtocolSession> KEY = AttributeKey.valueOf("demo.protocol.session");
+
+    /** trace context header extension */
+    public static final int FEATURE_TRACE = 1;
+    /** BATCH_REQUEST / BATCH_RESPONSE frames */
+    public static final int FEATURE_BATCH = 1 << 1;
+    /** deflate bodies above a size threshold; needs {@link DemoMessage#VERSION_COMPRESSION} */
+    public static final int FEATURE_COMPRESSION = 1 << 2;
+    /** pass DemoMessage objects without byte encoding; only ever offered on in-JVM local channels */
+    public static final int FEATURE_IN_VM_OBJECTS = 1 << 3;
+    /** answer requests in arrival order; only requested by clients that need it, since it costs pipelining slack */
+    public static final int FEATURE_ORDERED_RESPONSES = 1 << 4;
+
+    /** Everything a socket connection may negotiate. */
+    public static final int ALL_FEATURES = FEATURE_TRACE | FEATURE_BATCH | FEATURE_COMPRESSION;
+
+    /** Version 1 layout without features: what every peer understands without negotiation. */
+    public static final ProtocolSession LEGACY = new ProtocolSession(DemoMessage.LEGACY_VERSION, 0);
+
+    private final byte version;
+    private final int features;
+
+    public ProtocolSession(byte version, int features) {
+        if (version != DemoMessage.LEGACY_VERSION
+            && (version < DemoMessage.MIN_VERSION || version > DemoMessage.MAX_VERSION)) {
+            throw new IllegalArgumentException("Unsupported version: " + version);
+        }
+        this.version = version;
+        if (version == DemoMessage.LEGACY_VERSION) {
+            this.features = 0;
+        } else {
+            this.features = version >= DemoMessage.VERSION_COMPRESSION ? features : features & ~FEATURE_COMPRESSION;
+        }
+    }
+
+    /**
+     * The session the channel's handshake settled on so far; {@link #LEGACY} when the pipeline has no
+     * handshake and therefore only the default v1 codec.
+     */
+    public static ProtocolSession of(Channel ch) {
+        ProtocolSession session = ch.attr(KEY).get();
+        return session != null ? session : LEGACY;
+    }
+
+    /**
+     * Picks the highest version both ranges share and the features both sides enable.
+     *
+     * @return the agreed session, or {@code null} if the version ranges do not overlap
+     */
+    public static ProtocolSession negotiate(byte peerMin, byte peerMax, int peerFeatures, int localFeatures) {
+        byte version = (byte) Math.min(peerMax, DemoMessage.MAX_VERSION);
+        if (version < Math.max(peerMin, DemoMessage.MIN_VERSION)) {
+            return null;
+        }
+        return new ProtocolSession(version, peerFeatures & localFeatures);
+    }
+
+    public byte version() {
+        return version;
+    }
+
+    public int features() {
+        return features;
+    }
+
+    /** Only the version 1 frame types and header fields can be sent. */
+    public boolean isLegacy() {
+        return version == DemoMessage.LEGACY_VERSION;
+    }
+
+    public boolean has(int feature) {
+        return (features & feature) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ProtocolSession{version=" + version + ", features=0x" + Integer.toHexString(features) + '}';
+    }
+}
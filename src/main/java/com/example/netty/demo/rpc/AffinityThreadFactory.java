@@ -0,0 +1,99 @@
+package com.example.netty.demo.rpc;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names event loop threads after {@code prefix} and, on Linux, pins the N-th thread created to the
+ * N-th CPU of a CPU set (round-robin when there are more threads than CPUs). Pinning needs no native
+ * library: the new thread finds its kernel thread id through {@code /proc/thread-self} and runs
+ * {@code taskset} on itself before entering the event loop. Where that is not possible (other OS, no {@code taskset}, a CPU outside the
+ * container's cpuset) the thread just runs unpinned; {@link #pinnedThreads()} tells how many succeeded.
+ */
+public final class AffinityThreadFactory extends DefaultThreadFactory {
+
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+
+    private final int[] cpus;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger pinned = new AtomicInteger();
+
+    /**
+     * @param cpus CPU ids to pin to, or {@code null}/empty to only name the threads
+     */
+    public AffinityThreadFactory(String prefix, int[] cpus) {
+        super(prefix, false, Thread.NORM_PRIORITY);
+        this.cpus = cpus != null ? cpus.clone() : new int[0];
+    }
+
+    @Override
+    protected Thread newThread(Runnable r, String name) {
+        if (cpus.length == 0) {
+            return super.newThread(r, name);
+        }
+        int cpu = cpus[next.getAndIncrement() % cpus.length];
+        return super.newThread(() -> {
+            if (pinCurrentThread(cpu)) {
+                pinned.incrementAndGet();
+            }
+            r.run();
+        }, name);
+    }
+
+    public int pinnedThreads() {
+        return pinned.get();
+    }
+
+    private static boolean pinCurrentThread(int cpu) {
+        try {
+            // "<pid>/task/<tid>"
+            Path link = Files.readSymbolicLink(THREAD_SELF);
+            String tid = link.getFileName().toString();
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", String.valueOf(cpu), tid)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            if (taskset.waitFor(2, TimeUnit.SECONDS) && taskset.exitValue() == 0) {
+                return true;
+            }
+            taskset.destroy();
+            System.err.println("Could not pin " + Thread.currentThread().getName() + " to CPU " + cpu);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("CPU pinning unavailable, running unpinned: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Parses a Linux CPU list such as {@code "0-3,8,10-11"}.
+     */
+    public static int[] parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String part : list.split(",")) {
+            String range = part.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int from = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1));
+            if (from < 0 || to < from) {
+                throw new IllegalArgumentException("Bad CPU range: " + range);
+            }
+            for (int cpu = from; cpu <= to; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
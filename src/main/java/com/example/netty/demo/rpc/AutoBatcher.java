@@ -0,0 +1,141 @@
+package com.example.netty.demo.rpc;
+
+import com.example.netty.demo.codec.BatchCodec;
+import com.example.netty.demo.codec.DemoMessage;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects individual calls into BATCH_REQUEST frames. A batch is sent when it reaches
+ * {@code maxBatch} calls or {@code maxBatchBytes} of encoded body (payloads plus per-entry overhead),
+ * or {@code windowMs} after its first call, whichever comes first. All state lives on the channel's
+ * event loop, so no locking is needed.
+ */
+public final class AutoBatcher {
+
+    // stay well below the frame limit: the server's answers are usually larger than the requests
+    private static final int DEFAULT_MAX_BATCH_BYTES = 512 * 1024;
+
+    private final Channel ch;
+    private final RpcClientHandler handler;
+    private final EventLoop eventLoop;
+    private final int maxBatch;
+    private final int maxBatchBytes;
+    private final long windowMs;
+    private final long timeoutMs;
+    private final boolean ordered;
+    private final DemoMessage.Priority priority;
+
+    private List<String> payloads = new ArrayList<>();
+    private List<CompletableFuture<String>> futures = new ArrayList<>();
+    // encoded BATCH_REQUEST body size of what is pending
+    private int pendingBytes = BatchCodec.HEADER_BYTES;
+    private long generation;
+
+    public AutoBatcher(Channel ch, RpcClientHandler handler, int maxBatch, long windowMs, long timeoutMs,
+                       boolean ordered) {
+        this(ch, handler, maxBatch, DEFAULT_MAX_BATCH_BYTES, windowMs, timeoutMs, ordered, DemoMessage.Priority.NORMAL);
+    }
+
+    public AutoBatcher(Channel ch, RpcClientHandler handler, int maxBatch, int maxBatchBytes, long windowMs,
+                       long timeoutMs, boolean ordered, DemoMessage.Priority priority) {
+        if (maxBatch < 1 || maxBatch > BatchCodec.MAX_ENTRIES) {
+            throw new IllegalArgumentException("maxBatch must be in [1, " + BatchCodec.MAX_ENTRIES + "]: " + maxBatch);
+        }
+        if (maxBatchBytes <= BatchCodec.HEADER_BYTES || maxBatchBytes > DemoMessage.MAX_BODY) {
+            throw new IllegalArgumentException("maxBatchBytes must be in (" + BatchCodec.HEADER_BYTES + ", "
+                + DemoMessage.MAX_BODY + "]: " + maxBatchBytes);
+        }
+        this.ch = ch;
+        this.handler = handler;
+        this.eventLoop = ch.eventLoop();
+        this.maxBatch = maxBatch;
+        this.maxBatchBytes = maxBatchBytes;
+        this.windowMs = windowMs;
+        this.timeoutMs = timeoutMs;
+        this.ordered = ordered;
+        this.priority = priority;
+    }
+
+    public CompletableFuture<String> submit(String payload) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (eventLoop.inEventLoop()) {
+            add(payload, future);
+        } else {
+            eventLoop.execute(() -> add(payload, future));
+        }
+        return future;
+    }
+
+    /**
+     * Sends whatever is pending now instead of waiting for the window.
+     */
+    public void flush() {
+        if (eventLoop.inEventLoop()) {
+            doFlush();
+        } else {
+            eventLoop.execute(this::doFlush);
+        }
+    }
+
+    private void add(String payload, CompletableFuture<String> future) {
+        int size = BatchCodec.REQUEST_ENTRY_OVERHEAD + payload.getBytes(StandardCharsets.UTF_8).length;
+        if (!payloads.isEmpty() && pendingBytes + size > maxBatchBytes) {
+            doFlush();
+        }
+
+        payloads.add(payload);
+        futures.add(future);
+        pendingBytes += size;
+
+        if (payloads.size() >= maxBatch) {
+            doFlush();
+        } else if (payloads.size() == 1) {
+            long scheduledFor = generation;
+            eventLoop.schedule(() -> {
+                if (generation == scheduledFor) {
+                    doFlush();
+                }
+            }, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void doFlush() {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        List<String> sending = payloads;
+        List<CompletableFuture<String>> waiting = futures;
+        payloads = new ArrayList<>();
+        futures = new ArrayList<>();
+        pendingBytes = BatchCodec.HEADER_BYTES;
+        generation++;
+
+        if (sending.size() == 1) {
+            long requestId = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+            pipe(handler.call(ch, requestId, sending.get(0), timeoutMs, priority), waiting.get(0));
+            return;
+        }
+        List<CompletableFuture<String>> results = handler.callBatch(ch, sending, timeoutMs, ordered, priority);
+        for (int i = 0; i < results.size(); i++) {
+            pipe(results.get(i), waiting.get(i));
+        }
+    }
+
+    private static void pipe(CompletableFuture<String> from, CompletableFuture<String> to) {
+        from.whenComplete((value, ex) -> {
+            if (ex != null) {
+                to.completeExceptionally(ex);
+            } else {
+                to.complete(value);
+            }
+        });
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.netty.demo.rpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultMaxMessagesRecvByteBufAllocator;
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * Per-connection tuning of the receive buffer size and write water marks from observed frame sizes.
+ * Sits between the frame decoder/prepender and the message codec, so it sees whole frames in both
+ * directions. When {@code pauseReadsWhenUnwritable} is set (server side), a peer that does not drain
+ * its responses stops being read until the outbound buffer falls below the low water mark.
+ * <p>
+ * The channel caches its receive handle on the first read, so replacing the allocator later has no
+ * effect. The tuner therefore installs its own {@link TunableRecvByteBufAllocator} when it is added,
+ * which must happen in the channel initializer, and later only moves that allocator's bounds. Any
+ * {@code RCVBUF_ALLOCATOR} set on the bootstrap is replaced, so bootstraps should not configure one.
+ */
+public final class BufferAutoTuner extends ChannelDuplexHandler {
+
+    public static final WriteBufferWaterMark DEFAULT_WATER_MARK = new WriteBufferWaterMark(32 * 1024, 64 * 1024);
+
+    private static final int LENGTH_FIELD = 4;
+    private static final int RETUNE_EVERY = 256;
+    private static final double ALPHA = 0.05;
+
+    private static final int MIN_RECV = 64;
+    private static final int MAX_RECV = 1024 * 1024 + LENGTH_FIELD;
+    private static final int MIN_HIGH_WATER = 32 * 1024;
+    private static final int MAX_HIGH_WATER = 4 * 1024 * 1024;
+    // how many average-sized responses may sit in the outbound buffer before we push back
+    private static final int BUFFERED_MESSAGES = 64;
+
+    private final boolean pauseReadsWhenUnwritable;
+
+    private double inAvg = 512;
+    private double outAvg = 512;
+    private int inPeak;
+    private int samples;
+
+    private final TunableRecvByteBufAllocator recvAllocator = new TunableRecvByteBufAllocator(2048, 64 * 1024);
+    private int recvInitial;
+    private int recvMax;
+    private int highWater = DEFAULT_WATER_MARK.high();
+    private long unwritableEvents;
+
+    public BufferAutoTuner(boolean pauseReadsWhenUnwritable) {
+        this.pauseReadsWhenUnwritable = pauseReadsWhenUnwritable;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().config().setRecvByteBufAllocator(recvAllocator);
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            int size = ((ByteBuf) msg).readableBytes() + LENGTH_FIELD;
+            inAvg += ALPHA * (size - inAvg);
+            inPeak = Math.max(inPeak, size);
+            maybeRetune(ctx.channel().config());
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            int size = ((ByteBuf) msg).readableBytes() + LENGTH_FIELD;
+            outAvg += ALPHA * (size - outAvg);
+            maybeRetune(ctx.channel().config());
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        boolean writable = ctx.channel().isWritable();
+        if (!writable) {
+            unwritableEvents++;
+        }
+        if (pauseReadsWhenUnwritable) {
+            if (writable) {
+                ReadGate.resume(ctx.channel(), ReadGate.UNWRITABLE);
+            } else {
+                ReadGate.pause(ctx.channel(), ReadGate.UNWRITABLE);
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    private void maybeRetune(ChannelConfig config) {
+        if (++samples < RETUNE_EVERY) {
+            return;
+        }
+        samples = 0;
+
+        int initial = clamp(nextPowerOfTwo((int) inAvg), MIN_RECV, 64 * 1024);
+        int max = clamp(nextPowerOfTwo(inPeak), initial, MAX_RECV);
+        inPeak = 0;
+        if (initial != recvInitial || max != recvMax) {
+            recvInitial = initial;
+            recvMax = max;
+            recvAllocator.setBounds(initial, max);
+        }
+
+        int high = clamp(nextPowerOfTwo((int) (outAvg * BUFFERED_MESSAGES)), MIN_HIGH_WATER, MAX_HIGH_WATER);
+        if (high != highWater) {
+            highWater = high;
+            config.setWriteBufferWaterMark(new WriteBufferWaterMark(high / 2, high));
+        }
+    }
+
+    public int recvInitial() {
+        return recvInitial;
+    }
+
+    public int recvMax() {
+        return recvMax;
+    }
+
+    public int highWaterMark() {
+        return highWater;
+    }
+
+    public long unwritableEvents() {
+        return unwritableEvents;
+    }
+
+    /**
+     * Receive allocator whose bounds can move while the channel is reading. Sizing follows
+     * {@link AdaptiveRecvByteBufAllocator}: grow at once when a read fills the buffer, shrink after two
+     * reads in a row used at most half of it. When the bounds change, the next guess restarts from the
+     * new initial size. One instance per channel.
+     */
+    static final class TunableRecvByteBufAllocator extends DefaultMaxMessagesRecvByteBufAllocator {
+        // initial in the high half, max in the low half, so a handle never sees a torn pair
+        private volatile long bounds;
+
+        TunableRecvByteBufAllocator(int initial, int max) {
+            setBounds(initial, max);
+        }
+
+        void setBounds(int initial, int max) {
+            bounds = (long) initial << 32 | max;
+        }
+
+        @Override
+        public ExtendedHandle newHandle() {
+            return new TunableHandle();
+        }
+
+        private final class TunableHandle extends MaxMessageHandle {
+            private long seenBounds = -1;
+            private int max;
+            private int next;
+            private boolean decreaseNow;
+
+            @Override
+            public int guess() {
+                refresh();
+                return next;
+            }
+
+            @Override
+            public void lastBytesRead(int bytes) {
+                if (bytes == attemptedBytesRead()) {
+                    record(bytes);
+                }
+                super.lastBytesRead(bytes);
+            }
+
+            @Override
+            public void readComplete() {
+                record(totalBytesRead());
+            }
+
+            private void record(int actual) {
+                refresh();
+                if (actual >= next) {
+                    next = Math.min(next << 1, max);
+                    decreaseNow = false;
+                } else if (actual <= next >>> 1) {
+                    if (decreaseNow) {
+                        next = Math.max(next >>> 1, MIN_RECV);
+                    }
+                    decreaseNow = !decreaseNow;
+                } else {
+                    decreaseNow = false;
+                }
+            }
+
+            private void refresh() {
+                long current = bounds;
+                if (current != seenBounds) {
+                    seenBounds = current;
+                    max = (int) current;
+                    next = (int) (current >>> 32);
+                    decreaseNow = false;
+                }
+            }
+        }
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
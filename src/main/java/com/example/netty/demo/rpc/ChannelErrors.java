@@ -0,0 +1,46 @@
+package com.example.netty.demo.rpc;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.io.IOException;
+
+/**
+ * Shared {@code exceptionCaught} policy for the RPC handlers. A single bad frame is dropped and the
+ * connection kept, since length-field framing stays in sync; a run of bad frames, or any other
+ * error, closes the connection. I/O errors from a peer going away are not worth a log line.
+ * Failures of work running off the event loop are reported through {@link #taskFailed}.
+ */
+final class ChannelErrors {
+
+    static final int MAX_CONSECUTIVE_FRAME_ERRORS = 16;
+
+    private ChannelErrors() {
+    }
+
+    static boolean isFrameError(Throwable cause) {
+        return cause instanceof CorruptedFrameException || cause instanceof TooLongFrameException;
+    }
+
+    /**
+     * @param consecutiveFrameErrors bad frames seen since the last good one, including this one
+     */
+    static void handle(ChannelHandlerContext ctx, Throwable cause, int consecutiveFrameErrors) {
+        if (isFrameError(cause) && consecutiveFrameErrors <= MAX_CONSECUTIVE_FRAME_ERRORS) {
+            System.err.println("Dropped bad frame from " + ctx.channel().remoteAddress() + ": " + cause.getMessage());
+            return;
+        }
+        if (!(cause instanceof IOException)) {
+            System.err.println("Closing " + ctx.channel() + " after error: " + cause);
+        }
+        ctx.close();
+    }
+
+    /**
+     * Reports an error thrown by request work outside any channel pipeline, e.g. on a dispatcher worker.
+     */
+    static void taskFailed(String where, Throwable cause) {
+        System.err.println("Task failed on " + where + ": " + cause);
+    }
+}
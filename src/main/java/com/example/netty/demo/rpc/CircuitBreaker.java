@@ -0,0 +1,224 @@
+package com.example.netty.demo.rpc;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-endpoint circuit breaker. While CLOSED, call outcomes go into a sliding time window of buckets;
+ * once the window has enough calls and either the failure rate or the slow-call rate crosses its
+ * threshold, the breaker trips OPEN and rejects calls outright. After the open period it lets a few
+ * probe calls through (HALF_OPEN): if they all succeed it closes again with a fresh window, and any
+ * failure re-opens it.
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thrown for calls rejected while the breaker is open. Not worth retrying against the same endpoint.
+     */
+    public static final class OpenException extends RejectedExecutionException {
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int BUCKETS = 10;
+
+    private final long bucketNanos;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowRateThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long[] bucketEpoch = new long[BUCKETS];
+    private final int[] calls = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+    private final int[] slow = new int[BUCKETS];
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong trips = new AtomicLong();
+
+    /**
+     * @param windowMillis         length of the sliding window
+     * @param minCalls             calls the window must hold before the rates are trusted
+     * @param failureRateThreshold trip when failures / calls reaches this
+     * @param slowCallMillis       a call slower than this counts as slow even if it succeeds
+     * @param slowRateThreshold    trip when slow calls / calls reaches this
+     * @param openMillis           how long to reject before probing
+     * @param halfOpenProbes       probe calls that must all succeed to close again
+     */
+    public CircuitBreaker(long windowMillis, int minCalls, double failureRateThreshold, long slowCallMillis,
+                          double slowRateThreshold, long openMillis, int halfOpenProbes) {
+        if (windowMillis < BUCKETS || minCalls <= 0 || halfOpenProbes <= 0) {
+            throw new IllegalArgumentException("window, minCalls and halfOpenProbes must be positive");
+        }
+        this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis) / BUCKETS;
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowRateThreshold = slowRateThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * 10 s window, at least 20 calls, trips at 50 % failures or 80 % of calls slower than 1 s, stays
+     * open 5 s, closes after 3 good probes.
+     */
+    public static CircuitBreaker defaults() {
+        return new CircuitBreaker(10_000, 20, 0.5, 1_000, 0.8, 5_000, 3);
+    }
+
+    /**
+     * @return {@code false} if the call must be rejected; a {@code true} must be followed by exactly one
+     *         {@link #onSuccess} or {@link #onFailure}
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (state == State.OPEN && now - openedAt >= openNanos) {
+                state = State.HALF_OPEN;
+                probesStarted = 0;
+                probesSucceeded = 0;
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.HALF_OPEN && probesStarted < halfOpenProbes) {
+                probesStarted++;
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void onSuccess(long latencyNanos) {
+        record(false, latencyNanos);
+    }
+
+    public void onFailure(long latencyNanos) {
+        record(true, latencyNanos);
+    }
+
+    private void record(boolean failed, long latencyNanos) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            switch (state) {
+                case HALF_OPEN:
+                    if (failed || latencyNanos >= slowCallNanos) {
+                        trip(now);
+                    } else if (++probesSucceeded >= halfOpenProbes) {
+                        state = State.CLOSED;
+                        resetWindow();
+                    }
+                    break;
+                case CLOSED:
+                    int bucket = bucket(now);
+                    calls[bucket]++;
+                    if (failed) {
+                        failures[bucket]++;
+                    }
+                    if (latencyNanos >= slowCallNanos) {
+                        slow[bucket]++;
+                    }
+                    checkRates(now);
+                    break;
+                default:
+                    // outcome of a call admitted before the breaker opened
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkRates(long now) {
+        long epoch = now / bucketNanos;
+        int total = 0;
+        int failed = 0;
+        int slowCalls = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (epoch - bucketEpoch[i] < BUCKETS) {
+                total += calls[i];
+                failed += failures[i];
+                slowCalls += slow[i];
+            }
+        }
+        if (total >= minCalls
+            && ((double) failed / total >= failureRateThreshold || (double) slowCalls / total >= slowRateThreshold)) {
+            trip(now);
+        }
+    }
+
+    // the bucket for now, cleared if it last held an older slice of time
+    private int bucket(long now) {
+        long epoch = now / bucketNanos;
+        int i = (int) Math.floorMod(epoch, (long) BUCKETS);
+        if (bucketEpoch[i] != epoch) {
+            bucketEpoch[i] = epoch;
+            calls[i] = 0;
+            failures[i] = 0;
+            slow[i] = 0;
+        }
+        return i;
+    }
+
+    private void trip(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        trips.incrementAndGet();
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < BUCKETS; i++) {
+            calls[i] = 0;
+            failures[i] = 0;
+            slow[i] = 0;
+        }
+    }
+
+    public State state() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Calls refused while open or while the half-open probes were taken.
+     */
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public long trips() {
+        return trips.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{state=" + state() + ", trips=" + trips() + ", rejected=" + rejected() + '}';
+    }
+}
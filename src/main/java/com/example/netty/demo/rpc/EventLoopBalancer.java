@@ -0,0 +1,119 @@
+package com.example.netty.demo.rpc;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorChooserFactory;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assigns each new connection to the worker loop with the lowest load, counted as open connections
+ * plus queued tasks, instead of Netty's round-robin, which keeps handing connections to a loop that
+ * is already busy with long-lived ones. Also keeps per-loop load metrics.
+ * <p>
+ * A connection is counted by {@link #track} once its channel is registered and released when it
+ * closes, so a registration that fails never leaves a count behind. Until then the pending
+ * registration is a queued task on the chosen loop, which is what spreads a burst of accepts.
+ */
+public final class EventLoopBalancer implements EventExecutorChooserFactory {
+
+    private final Map<EventExecutor, LoopLoad> loads = new IdentityHashMap<>();
+    private EventExecutor[] executors = new EventExecutor[0];
+
+    @Override
+    public synchronized EventExecutorChooser newChooser(EventExecutor[] executors) {
+        this.executors = executors.clone();
+        for (EventExecutor executor : executors) {
+            loads.put(executor, new LoopLoad());
+        }
+        return new LeastLoadedChooser(this.executors, loads);
+    }
+
+    /**
+     * Counts {@code ch} against its loop until it closes. Call from the channel's initializer, which
+     * only runs once registration has succeeded.
+     */
+    public void track(Channel ch) {
+        LoopLoad load = loadOf(ch.eventLoop());
+        if (load == null) {
+            return;
+        }
+        if (ch.eventLoop().inEventLoop()) {
+            load.thread = Thread.currentThread().getName();
+        }
+        load.connections.incrementAndGet();
+        load.accepted.incrementAndGet();
+        ch.closeFuture().addListener(f -> load.connections.decrementAndGet());
+    }
+
+    private synchronized LoopLoad loadOf(EventExecutor executor) {
+        return loads.get(executor);
+    }
+
+    /**
+     * One line per loop: thread, open connections, connections registered so far, queued tasks.
+     */
+    public synchronized String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < executors.length; i++) {
+            LoopLoad load = loads.get(executors[i]);
+            sb.append("loop-").append(i)
+              .append(" thread=").append(load.thread)
+              .append(" connections=").append(load.connections.get())
+              .append(" accepted=").append(load.accepted.get())
+              .append(" pendingTasks=").append(pendingTasks(executors[i]))
+              .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static int pendingTasks(EventExecutor executor) {
+        return executor instanceof SingleThreadEventExecutor
+            ? ((SingleThreadEventExecutor) executor).pendingTasks()
+            : 0;
+    }
+
+    private static final class LoopLoad {
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicLong accepted = new AtomicLong();
+        // known once the loop has served a connection
+        volatile String thread;
+    }
+
+    private static final class LeastLoadedChooser implements EventExecutorChooser {
+        private final EventExecutor[] executors;
+        private final LoopLoad[] loads;
+        // rotates the scan start so equally loaded loops share new connections
+        private final AtomicInteger start = new AtomicInteger();
+
+        LeastLoadedChooser(EventExecutor[] executors, Map<EventExecutor, LoopLoad> loads) {
+            this.executors = executors;
+            this.loads = new LoopLoad[executors.length];
+            for (int i = 0; i < executors.length; i++) {
+                this.loads[i] = loads.get(executors[i]);
+            }
+        }
+
+        @Override
+        public EventExecutor next() {
+            int n = executors.length;
+            int offset = Math.floorMod(start.getAndIncrement(), n);
+            int best = offset;
+            int bestLoad = Integer.MAX_VALUE;
+            for (int k = 0; k < n; k++) {
+                int i = (offset + k) % n;
+                // registrations handed out but not yet run are still in the task queue
+                int load = loads[i].connections.get() + pendingTasks(executors[i]);
+                if (load < bestLoad) {
+                    best = i;
+                    bestLoad = load;
+                }
+            }
+            return executors[best];
+        }
+    }
+}
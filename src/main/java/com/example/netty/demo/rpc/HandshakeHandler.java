@@ -0,0 +1,125 @@
+package com.example.netty.demo.rpc;
+
+import com.example.netty.demo.codec.DemoMessage;
+import com.example.netty.demo.codec.DemoMessageDecoder;
+import com.example.netty.demo.codec.DemoMessageEncoder;
+import com.example.netty.demo.codec.ProtocolSession;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.local.LocalChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.concurrent.Promise;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HELLO handshake. The client announces its version range and features on connect; the server picks
+ * the highest common version and the intersection of features, answers, and both sides then replace
+ * the legacy codec with the variant for that session. Until then every frame uses the version 1
+ * layout, so calls never wait for the handshake and either side may still be a v1 build:
+ * <ul>
+ *   <li>the client's HELLO is sent as a v1 PING with a marker body; a v1 server answers it with a
+ *       plain PONG, and the client then stays on {@link ProtocolSession#LEGACY}</li>
+ *   <li>a v1 client never sends HELLO, so the server keeps writing v1 frames to it</li>
+ * </ul>
+ * Each side upgrades only once it has the peer's HELLO: the server right after answering, the client
+ * when the answer arrives. Decoders keep accepting v1 frames written before that.
+ */
+public final class HandshakeHandler extends ChannelInboundHandlerAdapter {
+
+    private final boolean client;
+    private final int localFeatures;
+    private Promise<ProtocolSession> negotiated;
+
+    public HandshakeHandler(boolean client, int localFeatures) {
+        this.client = client;
+        this.localFeatures = localFeatures;
+    }
+
+    /**
+     * Completes with the agreed session; fails if the versions are incompatible or the channel closes first.
+     */
+    public Promise<ProtocolSession> negotiated() {
+        return negotiated;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        negotiated = ctx.executor().newPromise();
+        ctx.channel().attr(ProtocolSession.KEY).set(ProtocolSession.LEGACY);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (client) {
+            ctx.writeAndFlush(DemoMessage.hello(DemoMessage.MIN_VERSION, DemoMessage.MAX_VERSION, localFeatures));
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof DemoMessage) || ((DemoMessage) msg).type() != DemoMessage.MessageType.HELLO) {
+            if (client && !negotiated.isDone() && msg instanceof DemoMessage
+                && ((DemoMessage) msg).type() == DemoMessage.MessageType.PONG) {
+                // HELLO is the first frame we wrote, so a PONG before its answer means a v1 server
+                // took it for a PING; keep the legacy codec
+                negotiated.trySuccess(ProtocolSession.LEGACY);
+            }
+            super.channelRead(ctx, msg);
+            return;
+        }
+        if (negotiated.isDone()) {
+            // renegotiation is not supported; ignore repeats
+            return;
+        }
+
+        ByteBuffer body = ByteBuffer.wrap(((DemoMessage) msg).body());
+        if (body.remaining() < 6) {
+            throw new CorruptedFrameException("Bad HELLO body length: " + body.remaining());
+        }
+        byte peerMin = body.get();
+        byte peerMax = body.get();
+        int peerFeatures = body.getInt();
+
+        ProtocolSession session = ProtocolSession.negotiate(peerMin, peerMax, peerFeatures, localFeatures);
+        if (session == null) {
+            negotiated.tryFailure(new IllegalStateException(
+                "No common protocol version, peer=[" + peerMin + "," + peerMax + "]"));
+            ctx.close();
+            return;
+        }
+
+        if (!client) {
+            // still goes out through the legacy encoder, which the client can read
+            ctx.writeAndFlush(DemoMessage.hello(session.version(), session.version(), session.features()));
+        }
+        install(ctx.pipeline(), session, client);
+        ctx.channel().attr(ProtocolSession.KEY).set(session);
+        negotiated.trySuccess(session);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        negotiated.tryFailure(new IllegalStateException("channel closed before handshake"));
+        super.channelInactive(ctx);
+    }
+
+    private static void install(ChannelPipeline pipeline, ProtocolSession session, boolean client) {
+        // the decoder stays even in object mode: it passes objects through and still handles any
+        // byte frames the peer wrote before it saw the handshake answer
+        pipeline.replace(DemoMessageDecoder.class, "demoDecoder", new DemoMessageDecoder(session));
+        if (session.has(ProtocolSession.FEATURE_IN_VM_OBJECTS) && pipeline.channel() instanceof LocalChannel) {
+            pipeline.replace(DemoMessageEncoder.class, "inVmHandoff", new InVmHandoffHandler());
+            pipeline.remove(LengthFieldPrepender.class);
+        } else {
+            pipeline.replace(DemoMessageEncoder.class, "demoEncoder", new DemoMessageEncoder(session));
+        }
+        if (!client && session.has(ProtocolSession.FEATURE_ORDERED_RESPONSES)) {
+            String server = pipeline.context(RpcServerHandler.class).name();
+            pipeline.addBefore(server, "responseSequencer", new ResponseSequencer(ResponseSequencer.DEFAULT_WINDOW));
+        }
+    }
+}
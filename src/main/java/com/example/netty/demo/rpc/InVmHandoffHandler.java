@@ -0,0 +1,26 @@
+package com.example.netty.demo.rpc;
+
+import com.example.netty.demo.codec.DemoMessage;
+import com.example.netty.demo.trace.TraceContext;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Replaces the byte encoder on in-JVM channels that negotiated object passing. Messages are handed
+ * to the peer as-is; only the trace context is copied, because its timestamps are per hop and the
+ * sender keeps recording into its own instance.
+ */
+final class InVmHandoffHandler extends ChannelOutboundHandlerAdapter {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (msg instanceof DemoMessage) {
+            TraceContext trace = ((DemoMessage) msg).trace();
+            if (trace != null) {
+                msg = ((DemoMessage) msg).withTrace(new TraceContext(trace.traceId(), trace.spanId(), trace.sampled()));
+            }
+        }
+        ctx.write(msg, promise);
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.netty.demo.rpc;
+
+import com.example.netty.demo.codec.DemoMessage.Priority;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs request handlers off the event loop with one bounded queue per {@link Priority}. Workers pick
+ * the next queue by smooth weighted round-robin, so HIGH gets most of the capacity while BULK still
+ * makes progress. Control frames never enter the dispatcher, so heartbeats cannot be starved by it.
+ * Work that does not fit, or arrives after {@link #shutdown}, is refused by {@link #submit} and the
+ * caller answers for it.
+ */
+public final class PriorityDispatcher {
+
+    private static final int[] DEFAULT_WEIGHTS = {8, 4, 1};
+    public static final int DEFAULT_LANE_CAPACITY = 10_000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Runnable>[] queues = new ArrayDeque[Priority.values().length];
+    private final int[] weights;
+    private final int[] current;
+    private final int laneCapacity;
+    private final Thread[] workers;
+    private final AtomicLong[] executed = new AtomicLong[Priority.values().length];
+    private final AtomicLong[] rejected = new AtomicLong[Priority.values().length];
+
+    private int size;
+    private boolean shutdown;
+
+    public PriorityDispatcher(int threads) {
+        this(threads, DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * @param weights relative share per priority, indexed by {@link Priority#ordinal()}
+     */
+    public PriorityDispatcher(int threads, int[] weights) {
+        this(threads, weights, DEFAULT_LANE_CAPACITY);
+    }
+
+    /**
+     * @param laneCapacity maximum queued tasks per priority
+     */
+    public PriorityDispatcher(int threads, int[] weights, int laneCapacity) {
+        if (weights.length != queues.length) {
+            throw new IllegalArgumentException("Need one weight per priority, got " + weights.length);
+        }
+        if (laneCapacity <= 0) {
+            throw new IllegalArgumentException("laneCapacity must be positive: " + laneCapacity);
+        }
+        this.weights = weights.clone();
+        this.current = new int[weights.length];
+        this.laneCapacity = laneCapacity;
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+            executed[i] = new AtomicLong();
+            rejected[i] = new AtomicLong();
+        }
+
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::runWorker, "rpc-dispatch-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @return {@code false} if the work was not queued because the dispatcher is shut down or the
+     *         priority's queue is full; the caller must then release whatever it reserved for it
+     */
+    public boolean submit(Priority priority, Runnable work) {
+        ArrayDeque<Runnable> queue = queues[priority.ordinal()];
+        lock.lock();
+        try {
+            if (shutdown || queue.size() >= laneCapacity) {
+                rejected[priority.ordinal()].incrementAndGet();
+                return false;
+            }
+            queue.addLast(work);
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queued(Priority priority) {
+        lock.lock();
+        try {
+            return queues[priority.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long executed(Priority priority) {
+        return executed[priority.ordinal()].get();
+    }
+
+    public long rejected(Priority priority) {
+        return rejected[priority.ordinal()].get();
+    }
+
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                return false;
+            }
+            worker.join(left);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void runWorker() {
+        while (true) {
+            Runnable task;
+            int lane;
+            lock.lock();
+            try {
+                while (size == 0 && !shutdown) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (size == 0) {
+                    return;
+                }
+                lane = pickLane();
+                task = queues[lane].pollFirst();
+                size--;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // keep the worker alive: a dead worker would silently shrink the dispatcher
+                ChannelErrors.taskFailed(Thread.currentThread().getName(), t);
+            }
+            executed[lane].incrementAndGet();
+        }
+    }
+
+    // smooth weighted round-robin over non-empty lanes; caller holds the lock
+    private int pickLane() {
+        int total = 0;
+        int best = -1;
+        for (int i = 0; i < queues.length; i++) {
+            if (queues[i].isEmpty()) {
+                continue;
+            }
+            current[i] += weights[i];
+            total += weights[i];
+            if (best < 0 || current[i] > current[best]) {
+                best = i;
+            }
+        }
+        current[best] -= total;
+        return best;
+    }
+}
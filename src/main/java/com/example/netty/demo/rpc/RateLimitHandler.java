@@ -0,0 +1,142 @@
+package com.example.netty.demo.rpc;
+
+import com.example.netty.demo.codec.DemoMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Charges every inbound frame against the connection's own buckets and its remote address's shared
+ * buckets (one request plus its size in bytes). Nothing is rejected: once a frame overdraws a bucket,
+ * reads are paused and frames that were already read are held back, then released one by one as the
+ * buckets refill. Reads resume when the backlog is gone. The backlog is bounded by a single socket
+ * read, since no further reads happen while it exists. Sits right after the frame decoder.
+ */
+public final class RateLimitHandler extends ChannelInboundHandlerAdapter {
+
+    private static final int LENGTH_FIELD = 4;
+
+    private final RateLimiter limiter;
+    private final TokenBucket requests;
+    private final TokenBucket bytes;
+    private RateLimiter.AddressBuckets address;
+
+    private final Queue<Object> deferred = new ArrayDeque<>();
+    private ScheduledFuture<?> resumeTask;
+    private long pausedAt;
+
+    public RateLimitHandler(RateLimiter limiter) {
+        this.limiter = limiter;
+        this.requests = limiter.newConnectionRequestBucket();
+        this.bytes = limiter.newConnectionByteBucket();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        address = limiter.retain(ctx.channel().remoteAddress());
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        int size = frameSize(msg);
+        if (size == 0) {
+            super.channelRead(ctx, msg);
+            return;
+        }
+        if (resumeTask != null) {
+            deferred.add(msg);
+            return;
+        }
+        long delay = charge(size);
+        ctx.fireChannelRead(msg);
+        if (delay > 0) {
+            pausedAt = System.nanoTime();
+            limiter.onThrottleStart();
+            ReadGate.pause(ctx.channel(), ReadGate.RATE_LIMITED);
+            resumeTask = ctx.executor().schedule(() -> release(ctx), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (resumeTask != null) {
+            resumeTask.cancel(false);
+            resumeTask = null;
+            limiter.onThrottleEnd(System.nanoTime() - pausedAt);
+        }
+        for (Object msg; (msg = deferred.poll()) != null; ) {
+            ReferenceCountUtil.release(msg);
+        }
+        if (address != null) {
+            limiter.release(address);
+            address = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    // passes on held-back frames while the buckets allow, then either waits again or resumes reads
+    private void release(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        long delay = currentDelay();
+        while (delay == 0 && !deferred.isEmpty()) {
+            Object msg = deferred.poll();
+            delay = charge(frameSize(msg));
+            ctx.fireChannelRead(msg);
+        }
+        if (delay > 0) {
+            resumeTask = ctx.executor().schedule(() -> release(ctx), delay, TimeUnit.NANOSECONDS);
+            return;
+        }
+        resumeTask = null;
+        limiter.onThrottleEnd(System.nanoTime() - pausedAt);
+        ctx.fireChannelReadComplete();
+        ReadGate.resume(ctx.channel(), ReadGate.RATE_LIMITED);
+    }
+
+    private long charge(int size) {
+        limiter.onFrame(size);
+        long now = System.nanoTime();
+        long delay = Math.max(acquire(requests, 1, now), acquire(bytes, size, now));
+        if (address != null) {
+            delay = Math.max(delay, Math.max(acquire(address.requests, 1, now), acquire(address.bytes, size, now)));
+        }
+        return delay;
+    }
+
+    private long currentDelay() {
+        long now = System.nanoTime();
+        long delay = Math.max(delay(requests, now), delay(bytes, now));
+        if (address != null) {
+            delay = Math.max(delay, Math.max(delay(address.requests, now), delay(address.bytes, now)));
+        }
+        return delay;
+    }
+
+    // in-JVM object mode hands over messages instead of frames; charge them by body size
+    private static int frameSize(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes() + LENGTH_FIELD;
+        }
+        if (msg instanceof DemoMessage) {
+            return ((DemoMessage) msg).body().length + LENGTH_FIELD;
+        }
+        return 0;
+    }
+
+    private static long acquire(TokenBucket bucket, long permits, long now) {
+        return bucket == null ? 0 : bucket.acquire(permits, now);
+    }
+
+    private static long delay(TokenBucket bucket, long now) {
+        return bucket == null ? 0 : bucket.delayNanos(now);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.netty.demo.rpc;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide rate limit configuration, the per-remote-address buckets shared by all connections from
+ * one host, and throttle metrics. Each connection gets its own {@link RateLimitHandler}, which also
+ * holds that connection's private buckets.
+ * <p>
+ * A limit of 0 disables it. Every bucket allows a burst of 100 ms worth of its rate.
+ */
+public final class RateLimiter {
+
+    private static final long BURST_DIVISOR = 10;
+
+    private final long connRequestsPerSec;
+    private final long connBytesPerSec;
+    private final long addrRequestsPerSec;
+    private final long addrBytesPerSec;
+
+    private final ConcurrentMap<Object, AddressBuckets> addresses = new ConcurrentHashMap<>();
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicInteger throttledNow = new AtomicInteger();
+
+    public RateLimiter(long connRequestsPerSec, long connBytesPerSec, long addrRequestsPerSec, long addrBytesPerSec) {
+        this.connRequestsPerSec = connRequestsPerSec;
+        this.connBytesPerSec = connBytesPerSec;
+        this.addrRequestsPerSec = addrRequestsPerSec;
+        this.addrBytesPerSec = addrBytesPerSec;
+    }
+
+    static TokenBucket bucket(long perSecond) {
+        return perSecond > 0 ? new TokenBucket(perSecond, Math.max(1, perSecond / BURST_DIVISOR)) : null;
+    }
+
+    TokenBucket newConnectionRequestBucket() {
+        return bucket(connRequestsPerSec);
+    }
+
+    TokenBucket newConnectionByteBucket() {
+        return bucket(connBytesPerSec);
+    }
+
+    /**
+     * Buckets for the remote host; connections from different ports of one host share them.
+     */
+    AddressBuckets retain(SocketAddress remote) {
+        if (addrRequestsPerSec <= 0 && addrBytesPerSec <= 0) {
+            return null;
+        }
+        Object key = remote instanceof InetSocketAddress ? ((InetSocketAddress) remote).getAddress() : remote;
+        return addresses.compute(key, (k, existing) -> {
+            AddressBuckets buckets = existing != null
+                ? existing
+                : new AddressBuckets(k, bucket(addrRequestsPerSec), bucket(addrBytesPerSec));
+            buckets.connections++;
+            return buckets;
+        });
+    }
+
+    void release(AddressBuckets buckets) {
+        addresses.computeIfPresent(buckets.key, (k, existing) -> --existing.connections == 0 ? null : existing);
+    }
+
+    void onFrame(int size) {
+        frames.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    void onThrottleStart() {
+        throttles.incrementAndGet();
+        throttledNow.incrementAndGet();
+    }
+
+    void onThrottleEnd(long pausedNanos) {
+        throttledNanos.addAndGet(pausedNanos);
+        throttledNow.decrementAndGet();
+    }
+
+    public long frames() {
+        return frames.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * How many times a connection had its reads paused.
+     */
+    public long throttles() {
+        return throttles.get();
+    }
+
+    /**
+     * Total time connections spent paused, summed over connections.
+     */
+    public long throttledMillis() {
+        return throttledNanos.get() / 1_000_000;
+    }
+
+    public int throttledConnections() {
+        return throttledNow.get();
+    }
+
+    public int trackedAddresses() {
+        return addresses.size();
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{frames=" + frames() + ", bytes=" + bytes() + ", throttles=" + throttles()
+            + ", throttledMs=" + throttledMillis() + ", throttledNow=" + throttledConnections()
+            + ", addresses=" + trackedAddresses() + '}';
+    }
+
+    static final class AddressBuckets {
+        final Object key;
+        final TokenBucket requests;
+        final TokenBucket bytes;
+        // guarded by the map's compute
+        int connections;
+
+        private AddressBuckets(Object key, TokenBucket requests, TokenBucket bytes) {
+            this.key = key;
+            this.requests = requests;
+            this.bytes = bytes;
+        }
+    }
+}
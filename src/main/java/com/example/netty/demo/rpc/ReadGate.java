@@ -0,0 +1,55 @@
+package com.example.netty.demo.rpc;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * {@code autoRead} shared by several handlers that each may want reads paused for their own reason.
+ * Reads resume only once every reason has been cleared, so one handler resuming cannot undo another's
+ * back-pressure. Only touched from the channel's event loop.
+ */
+final class ReadGate {
+
+    /** outbound buffer above the high water mark ({@link BufferAutoTuner}) */
+    static final int UNWRITABLE = 1;
+    /** over the connection's or address's rate limit ({@link RateLimitHandler}) */
+    static final int RATE_LIMITED = 1 << 1;
+    /** too many responses outstanding in ordered mode ({@link ResponseSequencer}) */
+    static final int REORDER_FULL = 1 << 2;
+
+    private static final AttributeKey<ReadGate> KEY = AttributeKey.valueOf("demo.read.gate");
+
+    private int reasons;
+
+    private ReadGate() {
+    }
+
+    static void pause(Channel ch, int reason) {
+        ReadGate gate = of(ch);
+        gate.reasons |= reason;
+        ch.config().setAutoRead(false);
+    }
+
+    static void resume(Channel ch, int reason) {
+        ReadGate gate = of(ch);
+        gate.reasons &= ~reason;
+        if (gate.reasons == 0) {
+            ch.config().setAutoRead(true);
+        }
+    }
+
+    static boolean isPaused(Channel ch, int reason) {
+        return (of(ch).reasons & reason) != 0;
+    }
+
+    private static ReadGate of(Channel ch) {
+        Attribute<ReadGate> attr = ch.attr(KEY);
+        ReadGate gate = attr.get();
+        if (gate == null) {
+            gate = new ReadGate();
+            attr.set(gate);
+        }
+        return gate;
+    }
+}
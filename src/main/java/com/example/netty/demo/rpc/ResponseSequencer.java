@@ -0,0 +1,170 @@
+package com.example.netty.demo.rpc;
+
+import com.example.netty.demo.codec.DemoMessage;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ordered response mode: answers to REQUEST and BATCH_REQUEST frames leave in the order the requests
+ * arrived, while the requests themselves still execute concurrently. A response that finishes early
+ * waits in a buffer until every earlier one has been written or skipped. The client can keep
+ * pipelining instead of sending one request at a time.
+ * <p>
+ * At most {@code window} requests may be outstanding; beyond that reads pause until the head of the
+ * line is written, which also bounds the buffer. Requests the server drops without answering must
+ * release their slot through {@link #skip}. Installed by the handshake right before
+ * {@link RpcServerHandler} when the client asks for it; without it responses go out as they finish.
+ * Event loop only.
+ */
+public final class ResponseSequencer extends ChannelDuplexHandler {
+
+    public static final int DEFAULT_WINDOW = 1024;
+
+    private static final Object SKIPPED = new Object();
+
+    private final int window;
+
+    // requestId -> arrival sequence
+    private final Map<Long, Long> sequences = new HashMap<>();
+    // finished but not yet written: sequence -> response (or SKIPPED) and its promise
+    private final Map<Long, Pending> ready = new HashMap<>();
+    private long nextArrival;
+    private long nextWrite;
+    private long reordered;
+
+    public ResponseSequencer(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Releases the slot of a request that will get no response. No-op in out-of-order mode.
+     */
+    static void skip(ChannelHandlerContext ctx, long requestId) {
+        if (ctx.pipeline().get(ResponseSequencer.class) != null) {
+            ctx.writeAndFlush(new Skip(requestId));
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof DemoMessage && expectsResponse(((DemoMessage) msg).type())) {
+            Long previous = sequences.put(((DemoMessage) msg).requestId(), nextArrival++);
+            if (previous != null) {
+                // a reused id takes over the answer; the older request's turn passes without one
+                ready.put(previous, new Pending(SKIPPED, null));
+                drain(ctx);
+                ctx.flush();
+            }
+            if (outstanding() >= window) {
+                ReadGate.pause(ctx.channel(), ReadGate.REORDER_FULL);
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        long requestId;
+        Object response;
+        if (msg instanceof Skip) {
+            requestId = ((Skip) msg).requestId;
+            response = SKIPPED;
+            promise.trySuccess();
+        } else if (msg instanceof DemoMessage && isResponse(((DemoMessage) msg).type())) {
+            requestId = ((DemoMessage) msg).requestId();
+            response = msg;
+        } else {
+            super.write(ctx, msg, promise);
+            return;
+        }
+
+        Long seq = sequences.remove(requestId);
+        if (seq == null) {
+            // request arrived before this handler was installed
+            if (response != SKIPPED) {
+                super.write(ctx, msg, promise);
+            }
+            return;
+        }
+        if (seq != nextWrite) {
+            reordered++;
+        }
+        ready.put(seq, new Pending(response, promise));
+        drain(ctx);
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        for (Pending next; (next = ready.remove(nextWrite)) != null; ) {
+            nextWrite++;
+            if (next.response != SKIPPED) {
+                ctx.write(next.response, next.promise);
+            }
+        }
+        if (outstanding() < window) {
+            ReadGate.resume(ctx.channel(), ReadGate.REORDER_FULL);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ClosedChannelException closed = new ClosedChannelException();
+        for (Pending pending : ready.values()) {
+            if (pending.promise != null) {
+                pending.promise.tryFailure(closed);
+            }
+        }
+        ready.clear();
+        sequences.clear();
+        super.channelInactive(ctx);
+    }
+
+    private long outstanding() {
+        return nextArrival - nextWrite;
+    }
+
+    /**
+     * Responses that had to wait for an earlier one.
+     */
+    public long reordered() {
+        return reordered;
+    }
+
+    public int buffered() {
+        return ready.size();
+    }
+
+    private static boolean expectsResponse(DemoMessage.MessageType type) {
+        return type == DemoMessage.MessageType.REQUEST || type == DemoMessage.MessageType.BATCH_REQUEST;
+    }
+
+    private static boolean isResponse(DemoMessage.MessageType type) {
+        return type == DemoMessage.MessageType.RESPONSE || type == DemoMessage.MessageType.ERROR
+            || type == DemoMessage.MessageType.BATCH_RESPONSE;
+    }
+
+    private static final class Skip {
+        final long requestId;
+
+        Skip(long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    private static final class Pending {
+        final Object response;
+        final ChannelPromise promise;
+
+        Pending(Object response, ChannelPromise promise) {
+            this.response = response;
+            this.promise = promise;
+        }
+    }
+}
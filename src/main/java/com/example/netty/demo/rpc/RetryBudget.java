@@ -0,0 +1,100 @@
+package com.example.netty.demo.rpc;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps retries at a fraction of the calls actually made, so a blip cannot turn into a retry storm.
+ * Every first attempt deposits {@code retryRatio} of a token, every retry spends a whole one, and the
+ * balance is capped at {@code maxBalance} tokens (which is also what a fresh budget starts with).
+ * Lock-free; shared by all calls on one endpoint.
+ */
+public final class RetryBudget {
+
+    // balance is kept in thousandths of a retry
+    private static final long UNIT = 1000;
+
+    private final long deposit;
+    private final long cap;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final AtomicLong balance;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    /**
+     * @param retryRatio        retries allowed per call in steady state, e.g. 0.1 for 10 %
+     * @param maxBalance        retries that can be saved up for a burst
+     * @param baseBackoffMillis backoff ceiling of the first retry; doubles per attempt
+     * @param maxBackoffMillis  upper bound of the backoff ceiling
+     */
+    public RetryBudget(double retryRatio, int maxBalance, long baseBackoffMillis, long maxBackoffMillis) {
+        if (retryRatio < 0 || maxBalance < 0 || baseBackoffMillis <= 0 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("Bad retry budget settings");
+        }
+        this.deposit = Math.round(retryRatio * UNIT);
+        this.cap = maxBalance * UNIT;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.balance = new AtomicLong(cap);
+    }
+
+    /**
+     * 10 % retries, a reserve of 10, backoff from 0-50 ms up to 0-2 s.
+     */
+    public static RetryBudget defaults() {
+        return new RetryBudget(0.1, 10, 50, 2_000);
+    }
+
+    /**
+     * Records a first attempt.
+     */
+    public void onCall() {
+        balance.accumulateAndGet(deposit, (current, add) -> Math.min(cap, current + add));
+    }
+
+    /**
+     * @return {@code true} if a retry may be made; the token is spent
+     */
+    public boolean tryRetry() {
+        while (true) {
+            long current = balance.get();
+            if (current < UNIT) {
+                exhausted.incrementAndGet();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - UNIT)) {
+                retries.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Full-jitter exponential backoff: uniform in {@code [0, min(max, base * 2^(retry - 1))]}.
+     *
+     * @param retry 1 for the first retry
+     */
+    public long backoffMillis(int retry) {
+        long ceiling = baseBackoffMillis << Math.min(retry - 1, 20);
+        return ThreadLocalRandom.current().nextLong(Math.min(ceiling, maxBackoffMillis) + 1);
+    }
+
+    public long retries() {
+        return retries.get();
+    }
+
+    /**
+     * Retries refused because the budget was empty.
+     */
+    public long exhausted() {
+        return exhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget{balance=" + (double) balance.get() / UNIT + ", retries=" + retries()
+            + ", exhausted=" + exhausted() + '}';
+    }
+}
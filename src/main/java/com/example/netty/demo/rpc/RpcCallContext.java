@@ -0,0 +1,78 @@
+package com.example.netty.demo.rpc;
+
+import com.example.netty.demo.codec.DemoMessage;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side view of one request: its deadline (derived from the client's remaining budget on
+ * arrival) and whether the client has cancelled it.
+ */
+public final class RpcCallContext {
+
+    private final long requestId;
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+
+    private RpcCallContext(long requestId, long deadlineNanos) {
+        this.requestId = requestId;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static RpcCallContext of(DemoMessage msg) {
+        return of(msg.requestId(), msg.timeoutMs());
+    }
+
+    /**
+     * @param timeoutMs remaining budget as received on the wire; 0 means no deadline
+     */
+    public static RpcCallContext of(long requestId, int timeoutMs) {
+        long deadline = timeoutMs > 0
+            ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+            : Long.MAX_VALUE;
+        return new RpcCallContext(requestId, deadline);
+    }
+
+    public long requestId() {
+        return requestId;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * {@code true} when nobody is waiting for the answer any more.
+     */
+    public boolean isAbandoned() {
+        return cancelled || isExpired();
+    }
+
+    public long remainingMillis() {
+        if (deadlineNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * Cooperative check for long-running handlers.
+     */
+    public void checkActive() {
+        if (cancelled) {
+            throw new CancellationException("requestId=" + requestId + " cancelled by client");
+        }
+        if (isExpired()) {
+            throw new CancellationException("requestId=" + requestId + " deadline exceeded");
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+}
@@ -3,20 +3,24 @@ package com.example.netty.demo.rpc;
 import com.example.netty.demo.codec.DemoMessage;
 import com.example.netty.demo.codec.DemoMessageDecoder;
 import com.example.netty.demo.codec.DemoMessageEncoder;
+import com.example.netty.demo.codec.FileTransferFrameDecoder;
+import com.example.netty.demo.codec.ProtocolSession;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.Scanner;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 public final class RpcClient {
@@ -30,29 +34,7 @@ public final class RpcClient {
         try {
             RpcClientHandler handler = new RpcClientHandler();
 
-            Bootstrap b = new Bootstrap();
-            b.group(group)
-             .channel(NioSocketChannel.class)
-             .option(ChannelOption.TCP_NODELAY, true)
-             .handler(new ChannelInitializer<SocketChannel>() {
-                 @Override
-                 protected void initChannel(SocketChannel ch) {
-                     ch.pipeline()
-                       .addLast(new LengthFieldBasedFrameDecoder(
-                           1024 * 1024,
-                           0,
-                           4,
-                           0,
-                           4
-                       ))
-                       .addLast(new LengthFieldPrepender(4))
-                       .addLast(new DemoMessageDecoder())
-                       .addLast(new DemoMessageEncoder())
-                       .addLast(handler);
-                 }
-             });
-
-            Channel ch = b.connect(host, port).sync().channel();
+            Channel ch = connect(group, new InetSocketAddress(host, port), handler, false).sync().channel();
             System.out.println("RPC client connected to " + host + ":" + port);
 
             startHeartbeat(ch.eventLoop(), ch);
@@ -68,8 +50,13 @@ public final class RpcClient {
                         break;
                     }
 
-                    long requestId = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
-                    handler.call(ch, requestId, line, 3_000)
+                    if (handler.isGoAwayReceived()) {
+                        System.out.println("server is draining (GOAWAY), reconnect to another instance");
+                        break;
+                    }
+
+                    // echo is idempotent, so timeouts and push-back may be retried within the budget
+                    handler.callWithRetry(ch, line, 3_000, DemoMessage.Priority.NORMAL, 3)
                            .whenComplete((resp, ex) -> {
                                if (ex != null) {
                                    System.out.println("ERR: " + ex.getMessage());
@@ -86,6 +73,51 @@ public final class RpcClient {
         }
     }
 
+    /**
+     * Connects over TCP, or over an in-JVM {@link LocalChannel} when {@code address} is a
+     * {@link LocalAddress} (the server must have called {@link RpcServer#startLocal}).
+     *
+     * @param inVmObjects on a local channel, offer to skip byte encoding; used only if the server agrees
+     */
+    public static ChannelFuture connect(EventLoopGroup group, SocketAddress address, RpcClientHandler handler,
+                                        boolean inVmObjects) {
+        return connect(group, address, handler, inVmObjects, false);
+    }
+
+    /**
+     * @param orderedResponses ask the server to answer requests in the order they were sent (see
+     *                         {@link ResponseSequencer}); otherwise responses arrive as they finish
+     */
+    public static ChannelFuture connect(EventLoopGroup group, SocketAddress address, RpcClientHandler handler,
+                                        boolean inVmObjects, boolean orderedResponses) {
+        boolean local = address instanceof LocalAddress;
+        int features = ProtocolSession.ALL_FEATURES
+            | (local && inVmObjects ? ProtocolSession.FEATURE_IN_VM_OBJECTS : 0)
+            | (orderedResponses ? ProtocolSession.FEATURE_ORDERED_RESPONSES : 0);
+
+        Bootstrap b = new Bootstrap();
+        b.group(group)
+         .channel(local ? LocalChannel.class : NioSocketChannel.class)
+         .handler(new ChannelInitializer<Channel>() {
+             @Override
+             protected void initChannel(Channel ch) {
+                 ch.pipeline()
+                   .addLast(new FileTransferFrameDecoder(DemoMessage.MAX_FRAME))
+                   .addLast(new LengthFieldPrepender(4))
+                   .addLast(new BufferAutoTuner(false))
+                   .addLast(new DemoMessageDecoder())
+                   .addLast(new DemoMessageEncoder())
+                   .addLast(new HandshakeHandler(true, features))
+                   .addLast(handler);
+             }
+         });
+        if (!local) {
+            b.option(ChannelOption.TCP_NODELAY, true)
+             .option(ChannelOption.WRITE_BUFFER_WATER_MARK, BufferAutoTuner.DEFAULT_WATER_MARK);
+        }
+        return b.connect(address);
+    }
+
     private static void startHeartbeat(EventLoop eventLoop, Channel ch) {
         eventLoop.scheduleAtFixedRate(() -> {
             if (ch.isActive()) {
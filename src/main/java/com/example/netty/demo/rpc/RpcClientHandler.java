@@ -1,22 +1,349 @@
 package com.example.netty.demo.rpc;
 
+import com.example.netty.demo.codec.BatchCodec;
 import com.example.netty.demo.codec.DemoMessage;
+import com.example.netty.demo.codec.FileTransferFrameDecoder;
+import com.example.netty.demo.codec.ProtocolSession;
+import com.example.netty.demo.trace.Stage;
+import com.example.netty.demo.trace.TraceContext;
+import com.example.netty.demo.trace.Tracer;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.util.concurrent.Promise;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public final class RpcClientHandler extends SimpleChannelInboundHandler<DemoMessage> {
 
     private final Map<Long, Promise<String>> inflight = new ConcurrentHashMap<>();
+    // only sampled calls have an entry
+    private final Map<Long, TraceContext> traces = new ConcurrentHashMap<>();
+
+    private final CircuitBreaker breaker;
+    private final RetryBudget retryBudget;
+
+    private volatile boolean goAwayReceived;
+
+    // event loop only
+    private long frameErrors;
+    private int consecutiveFrameErrors;
+
+    public RpcClientHandler() {
+        this(CircuitBreaker.defaults(), RetryBudget.defaults());
+    }
+
+    /**
+     * @param breaker     guards this connection's endpoint; every outbound call, batch and file fetch
+     *                    goes through it
+     * @param retryBudget limits {@link #callWithRetry} retries on this connection
+     */
+    public RpcClientHandler(CircuitBreaker breaker, RetryBudget retryBudget) {
+        this.breaker = breaker;
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * {@code true} once the server announced it is draining; new calls must be routed to another server.
+     */
+    public boolean isGoAwayReceived() {
+        return goAwayReceived;
+    }
 
     public CompletableFuture<String> call(Channel ch, long requestId, String payload, long timeoutMs) {
+        return call(ch, requestId, payload, timeoutMs, DemoMessage.Priority.NORMAL);
+    }
+
+    public CompletableFuture<String> call(Channel ch, long requestId, String payload, long timeoutMs,
+                                          DemoMessage.Priority priority) {
+        retryBudget.onCall();
+        return send(ch, requestId, payload, timeoutMs, priority);
+    }
+
+    private CompletableFuture<String> send(Channel ch, long requestId, String payload, long timeoutMs,
+                                           DemoMessage.Priority priority) {
+        Throwable refused = admit(ch);
+        if (refused != null) {
+            return failed(refused);
+        }
+
+        TraceContext trace = Tracer.maybeStart();
+        if (trace != null) {
+            trace.stamp(Stage.CALL_START);
+            traces.put(requestId, trace);
+        }
+
+        Promise<String> promise = register(ch, requestId, timeoutMs);
+        long start = System.nanoTime();
+        promise.addListener(f -> recordOutcome(start, f.isSuccess() ? null : f.cause()));
+
+        ch.writeAndFlush(DemoMessage.request(requestId, payload, timeoutMs, priority, trace)).addListener(f -> {
+            if (!f.isSuccess()) {
+                traces.remove(requestId);
+                Promise<String> removed = inflight.remove(requestId);
+                if (removed != null) {
+                    removed.tryFailure(f.cause());
+                }
+            }
+        });
+
+        return toCompletableFuture(promise);
+    }
+
+    /**
+     * {@link #call} for idempotent requests: a timeout, a full outbound buffer or a failed write is
+     * retried with a fresh request id after a jittered exponential backoff, as long as the retry budget
+     * allows and the whole {@code timeoutMs} is not used up. Each attempt gets an equal share of what
+     * is left of {@code timeoutMs}. Errors returned by the server, an open
+     * circuit and GOAWAY are not retried.
+     */
+    public CompletableFuture<String> callWithRetry(Channel ch, String payload, long timeoutMs,
+                                                   DemoMessage.Priority priority, int maxAttempts) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attempt(ch, payload, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs), priority, 1,
+            maxAttempts, result);
+        return result;
+    }
+
+    private void attempt(Channel ch, String payload, long deadlineNanos, DemoMessage.Priority priority,
+                         int attempt, int maxAttempts, CompletableFuture<String> result) {
+        // split what is left of the budget so a hung attempt leaves room for the ones after it
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        long attemptTimeout = Math.max(1, remaining / (maxAttempts - attempt + 1));
+        long requestId = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        CompletableFuture<String> sent = attempt == 1
+            ? call(ch, requestId, payload, attemptTimeout, priority)
+            : send(ch, requestId, payload, attemptTimeout, priority);
+        sent.whenComplete((resp, error) -> {
+            if (error == null) {
+                result.complete(resp);
+                return;
+            }
+            long backoff = retryBudget.backoffMillis(attempt);
+            long left = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (attempt >= maxAttempts || !isRetriable(error) || backoff >= left || !retryBudget.tryRetry()) {
+                result.completeExceptionally(error);
+                return;
+            }
+            ch.eventLoop().schedule(
+                () -> attempt(ch, payload, deadlineNanos, priority, attempt + 1, maxAttempts, result),
+                backoff, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private static boolean isRetriable(Throwable cause) {
+        if (cause instanceof CircuitBreaker.OpenException) {
+            return false;
+        }
+        return cause instanceof TimeoutException || cause instanceof RejectedExecutionException
+            || cause instanceof IOException;
+    }
+
+    // the server answered, so the endpoint is healthy even if the request failed
+    private static boolean isApplicationError(Throwable cause) {
+        return cause instanceof RemoteException;
+    }
+
+    /**
+     * Admission for one outbound frame: GOAWAY and writability first, then the circuit breaker. A
+     * non-null result means nothing was sent; otherwise the caller must report exactly one outcome
+     * through {@link #recordOutcome}.
+     */
+    private Throwable admit(Channel ch) {
+        Throwable refused = admissionFailure(ch);
+        if (refused != null) {
+            return refused;
+        }
+        if (!breaker.tryAcquire()) {
+            return new CircuitBreaker.OpenException("circuit open for " + ch.remoteAddress());
+        }
+        return null;
+    }
+
+    private void recordOutcome(long startNanos, Throwable cause) {
+        long latency = System.nanoTime() - startNanos;
+        if (cause == null || isApplicationError(cause)) {
+            breaker.onSuccess(latency);
+        } else {
+            breaker.onFailure(latency);
+        }
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return breaker;
+    }
+
+    public RetryBudget retryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Sends all payloads in one BATCH_REQUEST frame sharing a deadline and priority. Each sub-request
+     * still completes, times out and can be cancelled on its own. Every payload counts towards the retry
+     * budget; the frame passes the circuit breaker once and reports one outcome when its last
+     * sub-request completes, a failure if any of them failed for a reason other than a server error.
+     *
+     * @param ordered execute sub-requests one after another on the server instead of in parallel
+     * @return one future per payload, in the same order
+     */
+    public List<CompletableFuture<String>> callBatch(Channel ch, List<String> payloads, long timeoutMs,
+                                                     boolean ordered, DemoMessage.Priority priority) {
+        List<CompletableFuture<String>> futures = new ArrayList<>(payloads.size());
+        Throwable refused = admissionFailure(ch);
+        if (refused != null) {
+            for (int i = 0; i < payloads.size(); i++) {
+                futures.add(failed(refused));
+            }
+            return futures;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (!ProtocolSession.of(ch).has(ProtocolSession.FEATURE_BATCH)) {
+            // handshake not done yet or the peer did not agree to batching: fall back to one frame per call
+            for (String payload : payloads) {
+                futures.add(call(ch, random.nextLong(Long.MAX_VALUE), payload, timeoutMs, priority));
+            }
+            return futures;
+        }
+
+        for (int i = 0; i < payloads.size(); i++) {
+            retryBudget.onCall();
+        }
+        refused = admit(ch);
+        if (refused != null) {
+            for (int i = 0; i < payloads.size(); i++) {
+                futures.add(failed(refused));
+            }
+            return futures;
+        }
+
+        long batchId = random.nextLong(Long.MAX_VALUE);
+        TraceContext trace = Tracer.maybeStart();
+        if (trace != null) {
+            trace.stamp(Stage.CALL_START);
+            traces.put(batchId, trace);
+        }
+
+        List<BatchCodec.Entry> entries = new ArrayList<>(payloads.size());
+        long start = System.nanoTime();
+        AtomicInteger pending = new AtomicInteger(payloads.size());
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        for (String payload : payloads) {
+            long subId = random.nextLong(Long.MAX_VALUE);
+            entries.add(new BatchCodec.Entry(subId, BatchCodec.STATUS_OK, payload.getBytes(StandardCharsets.UTF_8)));
+            Promise<String> promise = register(ch, subId, timeoutMs);
+            promise.addListener(f -> {
+                if (!f.isSuccess() && !isApplicationError(f.cause())) {
+                    firstFailure.compareAndSet(null, f.cause());
+                }
+                if (pending.decrementAndGet() == 0) {
+                    recordOutcome(start, firstFailure.get());
+                }
+            });
+            futures.add(toCompletableFuture(promise));
+        }
+        if (entries.isEmpty()) {
+            recordOutcome(start, null);
+        }
+
+        BatchCodec.Batch batch = new BatchCodec.Batch(ordered, entries);
+        ch.writeAndFlush(DemoMessage.batchRequest(batchId, batch, timeoutMs, priority, trace)).addListener(f -> {
+            if (!f.isSuccess()) {
+                traces.remove(batchId);
+                for (BatchCodec.Entry entry : entries) {
+                    Promise<String> removed = inflight.remove(entry.id());
+                    if (removed != null) {
+                        removed.tryFailure(f.cause());
+                    }
+                }
+            }
+        });
+        return futures;
+    }
+
+    /**
+     * Fetches {@code remotePath} (relative to the server's file root) into {@code target}. The server
+     * sends it with {@code sendfile} and the bytes are written from the receive buffer straight into
+     * the file, so a multi-GB transfer needs neither heap for the content nor a {@code byte[]} copy.
+     *
+     * @return the number of bytes received
+     */
+    public CompletableFuture<Long> fetchFile(Channel ch, long requestId, String remotePath, Path target,
+                                             long timeoutMs) {
+        FileTransferFrameDecoder decoder = ch.pipeline().get(FileTransferFrameDecoder.class);
+        if (decoder == null) {
+            return failed(new IllegalStateException("pipeline cannot receive files"));
+        }
+        if (ProtocolSession.of(ch).isLegacy()) {
+            return failed(new IllegalStateException(
+                "file transfer needs the HELLO handshake to complete; the peer may be a version 1 build"));
+        }
+
+        FileChannel file;
+        try {
+            file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            return failed(e);
+        }
+        retryBudget.onCall();
+        Throwable refused = admit(ch);
+        if (refused != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // the call is refused either way
+            }
+            return failed(refused);
+        }
+        decoder.expect(requestId, file);
+        Promise<String> promise = register(ch, requestId, timeoutMs);
+        long start = System.nanoTime();
+        promise.addListener(f -> {
+            decoder.forget(requestId);
+            file.close();
+            recordOutcome(start, f.isSuccess() ? null : f.cause());
+        });
+
+        ch.writeAndFlush(DemoMessage.fileRequest(requestId, remotePath, timeoutMs)).addListener(f -> {
+            if (!f.isSuccess()) {
+                Promise<String> removed = inflight.remove(requestId);
+                if (removed != null) {
+                    removed.tryFailure(f.cause());
+                }
+            }
+        });
+        return toCompletableFuture(promise).thenApply(Long::parseLong);
+    }
+
+    private Throwable admissionFailure(Channel ch) {
+        if (goAwayReceived) {
+            return new IllegalStateException("server sent GOAWAY, reconnect elsewhere");
+        }
+        if (!ch.isWritable()) {
+            // outbound buffer is above the high water mark: push back instead of queueing more
+            return new RejectedExecutionException("channel not writable, retry later");
+        }
+        return null;
+    }
+
+    private Promise<String> register(Channel ch, long requestId, long timeoutMs) {
         Promise<String> promise = ch.eventLoop().newPromise();
         Promise<String> old = inflight.put(requestId, promise);
         if (old != null) {
@@ -27,19 +354,18 @@ public final class RpcClientHandler extends SimpleChannelInboundHandler<DemoMess
         ch.eventLoop().schedule(() -> {
             Promise<String> removed = inflight.remove(requestId);
             if (removed != null) {
-                removed.tryFailure(new RuntimeException("timeout after " + timeoutMs + "ms"));
-            }
-        }, timeoutMs, TimeUnit.MILLISECONDS);
-
-        ch.writeAndFlush(DemoMessage.request(requestId, payload)).addListener(f -> {
-            if (!f.isSuccess()) {
-                Promise<String> removed = inflight.remove(requestId);
-                if (removed != null) {
-                    removed.tryFailure(f.cause());
+                traces.remove(requestId);
+                removed.tryFailure(new TimeoutException("timeout after " + timeoutMs + "ms"));
+                // let the server stop working on an answer nobody will read; v1 has no CANCEL frame
+                if (ch.isActive() && !ProtocolSession.of(ch).isLegacy()) {
+                    ch.writeAndFlush(DemoMessage.cancel(requestId));
                 }
             }
-        });
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        return promise;
+    }
 
+    private static CompletableFuture<String> toCompletableFuture(Promise<String> promise) {
         CompletableFuture<String> cf = new CompletableFuture<>();
         promise.addListener(f -> {
             if (f.isSuccess()) {
@@ -51,33 +377,113 @@ public final class RpcClientHandler extends SimpleChannelInboundHandler<DemoMess
         return cf;
     }
 
+    private static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> cf = new CompletableFuture<>();
+        cf.completeExceptionally(cause);
+        return cf;
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, DemoMessage msg) {
+        consecutiveFrameErrors = 0;
         switch (msg.type()) {
             case PONG:
                 break;
+            case GOAWAY:
+                // in-flight calls still complete; only new calls are refused
+                goAwayReceived = true;
+                break;
             case RESPONSE:
                 Promise<String> promise = inflight.remove(msg.requestId());
                 if (promise != null) {
                     String body = new String(msg.body(), StandardCharsets.UTF_8);
                     promise.trySuccess(body);
+                    finishTrace(msg);
+                }
+                break;
+            case ERROR:
+                Promise<String> failed = inflight.remove(msg.requestId());
+                if (failed != null) {
+                    failed.tryFailure(new RemoteException(new String(msg.body(), StandardCharsets.UTF_8)));
+                    finishTrace(msg);
+                }
+                break;
+            case FILE_TRANSFER:
+                // the decoder passes the header on once the whole file is written
+                Promise<String> received = inflight.remove(msg.requestId());
+                if (received != null) {
+                    received.trySuccess(String.valueOf(ByteBuffer.wrap(msg.body()).getLong()));
                 }
                 break;
+            case BATCH_RESPONSE:
+                completeBatch(msg);
+                break;
             default:
                 break;
         }
     }
 
+    private void completeBatch(DemoMessage msg) {
+        for (BatchCodec.Entry entry : BatchCodec.decode(msg.body(), true).entries()) {
+            Promise<String> promise = inflight.remove(entry.id());
+            if (promise == null) {
+                continue;
+            }
+            String body = new String(entry.body(), StandardCharsets.UTF_8);
+            if (entry.status() == BatchCodec.STATUS_OK) {
+                promise.trySuccess(body);
+            } else if (entry.status() == BatchCodec.STATUS_DROPPED) {
+                promise.tryFailure(new RuntimeException("dropped by server (deadline or cancel)"));
+            } else if (entry.status() == BatchCodec.STATUS_TOO_LARGE) {
+                promise.tryFailure(new RemoteException("answer did not fit in the batch response, call it on its own"));
+            } else {
+                promise.tryFailure(new RemoteException(body));
+            }
+        }
+        finishTrace(msg);
+    }
+
+    private void finishTrace(DemoMessage msg) {
+        TraceContext span = traces.remove(msg.requestId());
+        if (span != null) {
+            span.copyStamps(msg.trace(), Stage.DECODE_START, Stage.DECODE_END);
+            span.stamp(Stage.RESPONSE_RECEIVED);
+            Tracer.finish(span, "client", msg.requestId());
+        }
+    }
+
+    /**
+     * The server processed the request and reported an error.
+     */
+    public static final class RemoteException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RemoteException(String message) {
+            super("server error: " + message);
+        }
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         RuntimeException ex = new RuntimeException("channel closed");
         inflight.forEach((id, p) -> p.tryFailure(ex));
         inflight.clear();
+        traces.clear();
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        cause.printStackTrace();
-        ctx.close();
+        if (ChannelErrors.isFrameError(cause)) {
+            frameErrors++;
+            consecutiveFrameErrors++;
+        }
+        ChannelErrors.handle(ctx, cause, consecutiveFrameErrors);
+    }
+
+    /**
+     * Malformed frames dropped on this connection.
+     */
+    public long frameErrors() {
+        return frameErrors;
     }
 }
@@ -3,55 +3,300 @@ package com.example.netty.demo.rpc;
 import com.example.netty.demo.codec.DemoMessage;
 import com.example.netty.demo.codec.DemoMessageDecoder;
 import com.example.netty.demo.codec.DemoMessageEncoder;
+import com.example.netty.demo.codec.ProtocolSession;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultSelectStrategyFactory;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ThreadPerTaskExecutor;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class RpcServer {
 
+    private static final long DEFAULT_DRAIN_TIMEOUT_MS = 10_000;
+
+    private final int port;
+    private final boolean reusePort;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Class<? extends ServerChannel> channelClass;
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final PriorityDispatcher dispatcher =
+        new PriorityDispatcher(Runtime.getRuntime().availableProcessors());
+
+    private final RateLimiter rateLimiter;
+    private final RpcService service;
+    private final Path fileRoot;
+    private final AffinityThreadFactory workerThreads;
+    private final EventLoopBalancer balancer = new EventLoopBalancer();
+
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
+    private volatile boolean draining;
+
+    /**
+     * @param reusePort bind with SO_REUSEPORT (epoll only) so a replacement process can listen on the
+     *                  same port while this one drains; silently ignored when epoll is unavailable
+     */
+    public RpcServer(int port, boolean reusePort) {
+        this(port, reusePort, null);
+    }
+
+    /**
+     * @param rateLimiter per-connection and per-address limits on inbound frames, or {@code null} for none
+     */
+    public RpcServer(int port, boolean reusePort, RateLimiter rateLimiter) {
+        this(port, reusePort, rateLimiter, RpcServer::echo);
+    }
+
+    /**
+     * @param service answers REQUEST frames and batch entries; defaults to an echo
+     */
+    public RpcServer(int port, boolean reusePort, RateLimiter rateLimiter, RpcService service) {
+        this(port, reusePort, rateLimiter, service, null);
+    }
+
+    /**
+     * @param fileRoot directory whose files clients may fetch with FILE_TRANSFER, or {@code null} to
+     *                 refuse file transfers
+     */
+    public RpcServer(int port, boolean reusePort, RateLimiter rateLimiter, RpcService service, Path fileRoot) {
+        this(port, reusePort, rateLimiter, service, fileRoot, WorkerSettings.defaults());
+    }
+
+    /**
+     * @param workers worker loop count, thread naming and CPU pinning; new connections always go to the
+     *                least loaded worker loop
+     */
+    public RpcServer(int port, boolean reusePort, RateLimiter rateLimiter, RpcService service, Path fileRoot,
+                     WorkerSettings workers) {
+        this.port = port;
+        this.rateLimiter = rateLimiter;
+        this.service = service;
+        this.fileRoot = fileRoot != null ? fileRoot.toAbsolutePath().normalize() : null;
+        this.reusePort = reusePort && Epoll.isAvailable();
+        this.workerThreads = new AffinityThreadFactory(workers.threadPrefix(), workers.cpus());
+        Executor workerExecutor = new ThreadPerTaskExecutor(workerThreads);
+        DefaultThreadFactory bossThreads = new DefaultThreadFactory("rpc-boss");
+        if (this.reusePort) {
+            this.bossGroup = new EpollEventLoopGroup(1, bossThreads);
+            this.workerGroup = new EpollEventLoopGroup(workers.threads(), workerExecutor, balancer,
+                DefaultSelectStrategyFactory.INSTANCE);
+            this.channelClass = EpollServerSocketChannel.class;
+        } else {
+            this.bossGroup = new NioEventLoopGroup(1, bossThreads);
+            this.workerGroup = new NioEventLoopGroup(workers.threads(), workerExecutor, balancer,
+                SelectorProvider.provider(), DefaultSelectStrategyFactory.INSTANCE);
+            this.channelClass = NioServerSocketChannel.class;
+        }
+    }
+
     public static void main(String[] args) throws InterruptedException {
         int port = args.length > 0 ? Integer.parseInt(args[0]) : 18080;
+        boolean reusePort = args.length > 1 && Boolean.parseBoolean(args[1]);
+        // optional: per-connection requests/s and bytes/s, then per-address requests/s and bytes/s
+        RateLimiter rateLimiter = args.length > 2
+            ? new RateLimiter(limitArg(args, 2), limitArg(args, 3), limitArg(args, 4), limitArg(args, 5))
+            : null;
+        // optional: worker loop count and a CPU list such as 0-3,8 to pin them to
+        WorkerSettings workers = new WorkerSettings(args.length > 6 ? Integer.parseInt(args[6]) : 0, "rpc-worker",
+            args.length > 7 ? AffinityThreadFactory.parseCpuList(args[7]) : null);
 
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        RpcServer server = new RpcServer(port, reusePort, rateLimiter, RpcServer::echo, null, workers);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            boolean clean = server.drain(DEFAULT_DRAIN_TIMEOUT_MS);
+            System.out.println("RPC server drained, clean=" + clean
+                + (rateLimiter != null ? ", " + rateLimiter : ""));
+        }, "rpc-server-drain"));
 
         try {
-            ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, workerGroup)
-             .channel(NioServerSocketChannel.class)
-             .childOption(ChannelOption.TCP_NODELAY, true)
-             .childHandler(new ChannelInitializer<SocketChannel>() {
-                 @Override
-                 protected void initChannel(SocketChannel ch) {
-                     ch.pipeline()
-                       .addLast(new LengthFieldBasedFrameDecoder(
-                           1024 * 1024,
-                           0,
-                           4,
-                           0,
-                           4
-                       ))
-                       .addLast(new LengthFieldPrepender(4))
-                       .addLast(new DemoMessageDecoder())
-                       .addLast(new DemoMessageEncoder())
-                       .addLast(new RpcServerHandler());
-                 }
-             });
-
-            ChannelFuture bindFuture = b.bind(port).sync();
-            System.out.println("RPC server started on port " + port);
-
-            bindFuture.channel().closeFuture().sync();
+            server.start();
+            System.out.println("RPC server started on port " + port + (server.reusePort ? " (SO_REUSEPORT)" : ""));
+
+            server.serverChannels.get(0).closeFuture().sync();
+            server.awaitTermination();
         } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            server.shutdownGroups();
+        }
+    }
+
+    private static CompletionStage<String> echo(Channel channel, RpcCallContext call, String request) {
+        return CompletableFuture.completedFuture("echo(" + request + ") from " + channel.localAddress());
+    }
+
+    private static long limitArg(String[] args, int index) {
+        return args.length > index ? Long.parseLong(args[index]) : 0;
+    }
+
+    public void start() throws InterruptedException {
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+         .channel(channelClass)
+         .childOption(ChannelOption.TCP_NODELAY, true)
+         .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, BufferAutoTuner.DEFAULT_WATER_MARK)
+         .childHandler(new ChannelInitializer<SocketChannel>() {
+             @Override
+             protected void initChannel(SocketChannel ch) {
+                 initPipeline(ch, ProtocolSession.ALL_FEATURES | ProtocolSession.FEATURE_ORDERED_RESPONSES);
+             }
+         });
+        if (reusePort) {
+            b.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+
+        serverChannels.add(b.bind(port).sync().channel());
+    }
+
+    /**
+     * Also serves clients in the same JVM over a {@link LocalChannel}, skipping the socket. With
+     * {@code objectMode} the server offers to pass {@link DemoMessage} objects without byte encoding;
+     * it is used only if the client offers it too.
+     */
+    public void startLocal(LocalAddress address, boolean objectMode) throws InterruptedException {
+        int features = ProtocolSession.ALL_FEATURES | ProtocolSession.FEATURE_ORDERED_RESPONSES
+            | (objectMode ? ProtocolSession.FEATURE_IN_VM_OBJECTS : 0);
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+         .channel(LocalServerChannel.class)
+         .childHandler(new ChannelInitializer<LocalChannel>() {
+             @Override
+             protected void initChannel(LocalChannel ch) {
+                 initPipeline(ch, features);
+             }
+         });
+
+        serverChannels.add(b.bind(address).sync().channel());
+    }
+
+    private void initPipeline(Channel ch, int features) {
+        channels.add(ch);
+        balancer.track(ch);
+        ch.pipeline()
+          .addLast(new LengthFieldBasedFrameDecoder(
+              DemoMessage.MAX_FRAME,
+              0,
+              4,
+              0,
+              4
+          ))
+          .addLast(new LengthFieldPrepender(4));
+        if (rateLimiter != null) {
+            ch.pipeline().addLast(new RateLimitHandler(rateLimiter));
+        }
+        ch.pipeline()
+          .addLast(new BufferAutoTuner(true))
+          .addLast(new DemoMessageDecoder())
+          .addLast(new DemoMessageEncoder())
+          .addLast(new HandshakeHandler(false, features))
+          .addLast(new RpcServerHandler(inflight, dropped, dispatcher, service, fileRoot));
+    }
+
+    /**
+     * Drain protocol: stop accepting, send GOAWAY so clients reroute new calls, wait for in-flight
+     * requests up to {@code timeoutMs}, then close every connection.
+     *
+     * @return {@code true} if all in-flight requests finished before the deadline
+     */
+    public boolean drain(long timeoutMs) {
+        if (draining) {
+            return inflight.get() == 0;
+        }
+        draining = true;
+
+        for (Channel listener : serverChannels) {
+            listener.close().awaitUninterruptibly();
+        }
+        // v1 clients have no GOAWAY frame; they just see the close below
+        channels.writeAndFlush(DemoMessage.goAway(), ch -> !ProtocolSession.of(ch).isLegacy());
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (inflight.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        boolean clean = inflight.get() == 0;
+
+        channels.close().awaitUninterruptibly();
+        shutdownGroups();
+        return clean;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public int inflight() {
+        return inflight.get();
+    }
+
+    /**
+     * Requests skipped because their deadline passed or the client cancelled them.
+     */
+    public long droppedRequests() {
+        return dropped.get();
+    }
+
+    private void awaitTermination() throws InterruptedException {
+        if (draining) {
+            workerGroup.terminationFuture().sync();
         }
     }
+
+    public PriorityDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Per worker loop: thread name, open connections, connections accepted, queued tasks.
+     */
+    public String eventLoopStats() {
+        return balancer.snapshot() + "pinnedThreads=" + workerThreads.pinnedThreads();
+    }
+
+    /**
+     * Throttle metrics, or {@code null} if the server runs without rate limits.
+     */
+    public RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    private void shutdownGroups() {
+        dispatcher.shutdown();
+        bossGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+        workerGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+    }
 }
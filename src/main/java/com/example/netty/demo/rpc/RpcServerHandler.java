@@ -1,32 +1,440 @@
 package com.example.netty.demo.rpc;
 
+import com.example.netty.demo.codec.BatchCodec;
 import com.example.netty.demo.codec.DemoMessage;
+import com.example.netty.demo.trace.Stage;
+import com.example.netty.demo.trace.TraceContext;
+import com.example.netty.demo.trace.Tracer;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.local.LocalChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.concurrent.ScheduledFuture;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Server side of the RPC protocol. Requests are started on the {@link PriorityDispatcher} and handed to
+ * the {@link RpcService}; the answer is written whenever the returned stage completes, so a slow
+ * service holds no thread while it waits.
+ */
 public final class RpcServerHandler extends SimpleChannelInboundHandler<DemoMessage> {
 
+    private static final String OVERLOADED = "server overloaded or shutting down, request not started";
+
+    private final AtomicInteger inflight;
+    private final AtomicLong dropped;
+    private final PriorityDispatcher dispatcher;
+    private final RpcService service;
+    private final Path fileRoot;
+
+    // written by the event loop, removed by dispatcher workers
+    private final Map<Long, RpcCallContext> calls = new ConcurrentHashMap<>();
+
+    // event loop only
+    private long frameErrors;
+    private int consecutiveFrameErrors;
+
+    public RpcServerHandler(AtomicInteger inflight, AtomicLong dropped, PriorityDispatcher dispatcher,
+                            RpcService service, Path fileRoot) {
+        this.inflight = inflight;
+        this.dropped = dropped;
+        this.dispatcher = dispatcher;
+        this.service = service;
+        this.fileRoot = fileRoot;
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, DemoMessage msg) {
+        consecutiveFrameErrors = 0;
         switch (msg.type()) {
             case PING:
                 ctx.writeAndFlush(DemoMessage.pong());
                 break;
             case REQUEST:
-                String reqBody = new String(msg.body(), StandardCharsets.UTF_8);
-                String resp = "echo(" + reqBody + ") from " + ctx.channel().localAddress();
-                ctx.writeAndFlush(DemoMessage.response(msg.requestId(), resp));
+                handleRequest(ctx, msg);
+                break;
+            case BATCH_REQUEST:
+                handleBatch(ctx, msg);
+                break;
+            case FILE_TRANSFER:
+                handleFile(ctx, msg);
+                break;
+            case CANCEL:
+                RpcCallContext call = calls.remove(msg.requestId());
+                if (call != null) {
+                    call.cancel();
+                }
                 break;
             default:
                 break;
         }
     }
 
+    private void handleRequest(ChannelHandlerContext ctx, DemoMessage msg) {
+        // the deadline is checked when a worker dequeues the call (invoke -> checkActive)
+        RpcCallContext call = RpcCallContext.of(msg);
+
+        TraceContext trace = msg.trace();
+        if (trace != null) {
+            trace.stamp(Stage.QUEUED);
+        }
+
+        calls.put(call.requestId(), call);
+        inflight.incrementAndGet();
+        String reqBody = new String(msg.body(), StandardCharsets.UTF_8);
+        boolean queued = dispatcher.submit(msg.priority(), () -> {
+            if (trace != null) {
+                trace.stamp(Stage.EXEC_START);
+            }
+            invoke(ctx, call, reqBody).whenComplete((resp, error) -> complete(ctx, call, trace, resp, error));
+        });
+        if (!queued) {
+            calls.remove(call.requestId());
+            ctx.writeAndFlush(DemoMessage.error(call.requestId(), OVERLOADED, trace))
+               .addListener(f -> inflight.decrementAndGet());
+        }
+    }
+
+    /**
+     * Answers one finished request. Whatever goes wrong while building the answer still ends in an
+     * ERROR frame, so the client is not left to time out and {@code inflight} is always released.
+     */
+    private void complete(ChannelHandlerContext ctx, RpcCallContext call, TraceContext trace, String resp,
+                          Throwable error) {
+        calls.remove(call.requestId());
+        if (trace != null) {
+            trace.stamp(Stage.EXEC_END);
+        }
+        Throwable cause = unwrap(error);
+        if (cause == null && call.isAbandoned()) {
+            cause = new CancellationException();
+        }
+        if (cause instanceof CancellationException) {
+            dropped.incrementAndGet();
+            inflight.decrementAndGet();
+            ResponseSequencer.skip(ctx, call.requestId());
+            return;
+        }
+        DemoMessage reply;
+        try {
+            reply = cause == null
+                ? DemoMessage.response(call.requestId(), resp, trace)
+                : DemoMessage.error(call.requestId(), String.valueOf(cause.getMessage()), trace);
+        } catch (Throwable t) {
+            reply = DemoMessage.error(call.requestId(), "could not build the response: " + t, trace);
+        }
+        ctx.writeAndFlush(reply).addListener(f -> {
+            inflight.decrementAndGet();
+            Tracer.finish(trace, "server", call.requestId());
+        });
+    }
+
+    private void handleBatch(ChannelHandlerContext ctx, DemoMessage msg) {
+        BatchCodec.Batch batch = BatchCodec.decode(msg.body(), false);
+        List<BatchCodec.Entry> entries = batch.entries();
+        int n = entries.size();
+
+        TraceContext trace = msg.trace();
+        if (trace != null) {
+            trace.stamp(Stage.QUEUED);
+        }
+
+        // one context per sub-request so a CANCEL for a single sub-request id still works
+        RpcCallContext[] subCalls = new RpcCallContext[n];
+        for (int i = 0; i < n; i++) {
+            subCalls[i] = RpcCallContext.of(entries.get(i).id(), msg.timeoutMs());
+            calls.put(subCalls[i].requestId(), subCalls[i]);
+        }
+        BatchCodec.Entry[] results = new BatchCodec.Entry[n];
+        inflight.incrementAndGet();
+
+        Runnable reply = () -> {
+            if (trace != null) {
+                trace.stamp(Stage.EXEC_END);
+            }
+            BatchCodec.Batch response = new BatchCodec.Batch(batch.ordered(), fitFrame(results));
+            ctx.writeAndFlush(DemoMessage.batchResponse(msg.requestId(), response, trace))
+               .addListener(f -> {
+                   inflight.decrementAndGet();
+                   Tracer.finish(trace, "server", msg.requestId());
+               });
+        };
+
+        if (n == 0) {
+            reply.run();
+        } else if (batch.ordered()) {
+            // each sub-request starts only once the previous one has completed
+            boolean queued = dispatcher.submit(msg.priority(), () -> {
+                if (trace != null) {
+                    trace.stamp(Stage.EXEC_START);
+                }
+                CompletionStage<Void> chain = CompletableFuture.completedFuture(null);
+                for (int i = 0; i < n; i++) {
+                    int index = i;
+                    chain = chain.thenCompose(v -> executeEntry(ctx, subCalls[index], entries.get(index)))
+                                 .thenAccept(result -> results[index] = result);
+                }
+                chain.thenRun(reply);
+            });
+            if (!queued) {
+                for (int i = 0; i < n; i++) {
+                    results[i] = refuse(subCalls[i]);
+                }
+                reply.run();
+            }
+        } else {
+            if (trace != null) {
+                trace.stamp(Stage.EXEC_START);
+            }
+            AtomicInteger remaining = new AtomicInteger(n);
+            for (int i = 0; i < n; i++) {
+                int index = i;
+                boolean queued = dispatcher.submit(msg.priority(), () ->
+                    executeEntry(ctx, subCalls[index], entries.get(index)).thenAccept(result -> {
+                        results[index] = result;
+                        if (remaining.decrementAndGet() == 0) {
+                            reply.run();
+                        }
+                    }));
+                if (!queued) {
+                    results[index] = refuse(subCalls[index]);
+                    if (remaining.decrementAndGet() == 0) {
+                        reply.run();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps a BATCH_RESPONSE within one frame: while it is too large, the largest answers are replaced
+     * by empty STATUS_TOO_LARGE entries. Even {@link BatchCodec#MAX_ENTRIES} empty entries fit.
+     */
+    private static List<BatchCodec.Entry> fitFrame(BatchCodec.Entry[] results) {
+        List<BatchCodec.Entry> entries = Arrays.asList(results);
+        long excess = BatchCodec.encodedSize(entries, true) - DemoMessage.MAX_BODY;
+        if (excess <= 0) {
+            return entries;
+        }
+        Integer[] bySize = new Integer[results.length];
+        for (int i = 0; i < bySize.length; i++) {
+            bySize[i] = i;
+        }
+        Arrays.sort(bySize, (a, b) -> Integer.compare(results[b].body().length, results[a].body().length));
+        for (int i = 0; i < bySize.length && excess > 0; i++) {
+            BatchCodec.Entry entry = results[bySize[i]];
+            excess -= entry.body().length;
+            results[bySize[i]] = new BatchCodec.Entry(entry.id(), BatchCodec.STATUS_TOO_LARGE, new byte[0]);
+        }
+        return entries;
+    }
+
+    // a sub-request the dispatcher would not take
+    private BatchCodec.Entry refuse(RpcCallContext call) {
+        calls.remove(call.requestId());
+        return new BatchCodec.Entry(call.requestId(), BatchCodec.STATUS_ERROR,
+            OVERLOADED.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // never fails: errors and drops become the entry's status
+    private CompletionStage<BatchCodec.Entry> executeEntry(ChannelHandlerContext ctx, RpcCallContext call,
+                                                          BatchCodec.Entry entry) {
+        String request = new String(entry.body(), StandardCharsets.UTF_8);
+        return invoke(ctx, call, request).handle((resp, error) -> {
+            try {
+                return toEntry(call, resp, error);
+            } catch (Throwable t) {
+                return new BatchCodec.Entry(call.requestId(), BatchCodec.STATUS_ERROR,
+                    ("could not build the response: " + t).getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    private BatchCodec.Entry toEntry(RpcCallContext call, String resp, Throwable error) {
+        calls.remove(call.requestId());
+        Throwable cause = unwrap(error);
+        if (cause == null && call.isAbandoned()) {
+            cause = new CancellationException();
+        }
+        if (cause instanceof CancellationException) {
+            dropped.incrementAndGet();
+            return new BatchCodec.Entry(call.requestId(), BatchCodec.STATUS_DROPPED, new byte[0]);
+        }
+        if (cause != null) {
+            byte[] message = String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8);
+            return new BatchCodec.Entry(call.requestId(), BatchCodec.STATUS_ERROR, message);
+        }
+        return new BatchCodec.Entry(call.requestId(), BatchCodec.STATUS_OK, resp.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers with a FILE_TRANSFER header and then the file itself as a {@link DefaultFileRegion}, which
+     * the transport sends with {@code sendfile}: the bytes never enter the JVM heap or user space. The
+     * region is written below the {@link LengthFieldPrepender} so it goes out unframed. Transfers are not
+     * part of the ordered response mode.
+     * <p>
+     * Like other requests, a transfer whose deadline has passed or that the client cancelled is dropped
+     * without an answer, both when a worker picks it up and right before the header is written. Once
+     * the header is out the client expects exactly that many bytes, so the transfer then runs to the end.
+     */
+    private void handleFile(ChannelHandlerContext ctx, DemoMessage msg) {
+        long requestId = msg.requestId();
+        ChannelHandlerContext prepender = ctx.pipeline().context(LengthFieldPrepender.class);
+        if (fileRoot == null || prepender == null || ctx.channel() instanceof LocalChannel) {
+            ctx.writeAndFlush(DemoMessage.error(requestId, "file transfer not available on this connection", null));
+            return;
+        }
+        RpcCallContext call = RpcCallContext.of(msg);
+        calls.put(requestId, call);
+        inflight.incrementAndGet();
+        String name = new String(msg.body(), StandardCharsets.UTF_8);
+        // opening the file may block, so it happens on a worker; the writes go back to the event loop
+        boolean queued = dispatcher.submit(msg.priority(), () -> {
+            if (call.isAbandoned()) {
+                dropFile(call, null);
+                return;
+            }
+            FileChannel file;
+            long length;
+            try {
+                file = FileChannel.open(resolve(name), StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS);
+                length = file.size();
+            } catch (IOException | RuntimeException e) {
+                calls.remove(requestId);
+                ctx.writeAndFlush(DemoMessage.error(requestId, "cannot send " + name + ": " + e.getMessage(), null))
+                   .addListener(f -> inflight.decrementAndGet());
+                return;
+            }
+            ctx.executor().execute(() -> {
+                if (call.isAbandoned()) {
+                    dropFile(call, file);
+                    return;
+                }
+                calls.remove(requestId);
+                ctx.write(DemoMessage.fileHeader(requestId, length));
+                prepender.writeAndFlush(new DefaultFileRegion(file, 0, length))
+                         .addListener(f -> inflight.decrementAndGet());
+            });
+        });
+        if (!queued) {
+            calls.remove(requestId);
+            ctx.writeAndFlush(DemoMessage.error(requestId, OVERLOADED, null))
+               .addListener(f -> inflight.decrementAndGet());
+        }
+    }
+
+    private void dropFile(RpcCallContext call, FileChannel file) {
+        calls.remove(call.requestId());
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // nothing was sent from it
+            }
+        }
+        dropped.incrementAndGet();
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * Resolves {@code name} below the file root. The check runs on the real path, with every symbolic
+     * link followed, so a link under the root cannot point at a file outside it; the caller opens the
+     * result with {@code NOFOLLOW_LINKS} so it cannot be swapped for a link afterwards.
+     */
+    private Path resolve(String name) throws IOException {
+        Path path = fileRoot.resolve(name).normalize();
+        if (!path.startsWith(fileRoot)) {
+            throw new IOException("no such file below the file root");
+        }
+        Path real;
+        try {
+            real = path.toRealPath();
+        } catch (IOException e) {
+            throw new IOException("no such file below the file root");
+        }
+        if (!real.startsWith(fileRoot.toRealPath()) || !Files.isRegularFile(real, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("no such file below the file root");
+        }
+        return real;
+    }
+
+    /**
+     * Runs the service and bounds its stage by the call's deadline, so an answer that will never come
+     * does not hold the request forever. Never throws: a service that throws, even an Error, fails the
+     * stage instead, and a {@code null} result becomes an empty answer.
+     */
+    private CompletableFuture<String> invoke(ChannelHandlerContext ctx, RpcCallContext call, String request) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            call.checkActive();
+            CompletionStage<String> stage = service.handle(ctx.channel(), call, request);
+            if (stage == null) {
+                throw new IllegalStateException("service returned no result");
+            }
+            stage.whenComplete((resp, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(resp != null ? resp : "");
+                }
+            });
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+
+        long remaining = call.remainingMillis();
+        if (!result.isDone() && remaining != Long.MAX_VALUE) {
+            ScheduledFuture<?> timer = ctx.executor().schedule(
+                () -> result.completeExceptionally(new CancellationException("deadline exceeded")),
+                remaining, TimeUnit.MILLISECONDS);
+            result.whenComplete((resp, error) -> timer.cancel(false));
+        }
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        calls.values().forEach(RpcCallContext::cancel);
+        calls.clear();
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        cause.printStackTrace();
-        ctx.close();
+        if (ChannelErrors.isFrameError(cause)) {
+            frameErrors++;
+            consecutiveFrameErrors++;
+        }
+        ChannelErrors.handle(ctx, cause, consecutiveFrameErrors);
+    }
+
+    /**
+     * Malformed frames dropped on this connection.
+     */
+    public long frameErrors() {
+        return frameErrors;
     }
 }
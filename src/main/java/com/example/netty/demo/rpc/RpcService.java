@@ -0,0 +1,26 @@
+package com.example.netty.demo.rpc;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Application logic behind REQUEST frames. {@link #handle} runs on a {@link PriorityDispatcher} worker
+ * and should return quickly: anything that waits on I/O belongs in the returned stage, not in the
+ * call. The response is written when the stage completes, from whatever thread completes it; Netty
+ * hands the write to the channel's event loop.
+ * <p>
+ * A stage that fails with {@link java.util.concurrent.CancellationException} is treated as dropped and
+ * gets no answer; any other failure is sent back as an ERROR frame. A stage that completes with
+ * {@code null} is answered with an empty body. Stages still pending at the client's deadline are
+ * abandoned.
+ */
+@FunctionalInterface
+public interface RpcService {
+
+    /**
+     * @param channel the connection the request arrived on
+     * @param call    deadline and cancellation of this request
+     */
+    CompletionStage<String> handle(Channel channel, RpcCallContext call, String request);
+}
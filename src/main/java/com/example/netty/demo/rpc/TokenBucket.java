@@ -0,0 +1,60 @@
+package com.example.netty.demo.rpc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket in its virtual-scheduling form: the whole state is one "theoretical arrival
+ * time" that each acquisition pushes forward by {@code permits / rate}. Refill is implicit in the
+ * passing of time, so there is no refill thread and no lock, just one CAS per acquisition. Safe to
+ * share between event loops.
+ * <p>
+ * Acquisitions never fail: the caller is told how long it has overdrawn the bucket and is expected to
+ * back off for that long.
+ */
+public final class TokenBucket {
+
+    private static final long SCALE = 1024;
+
+    private final long nanosPerPermitScaled;
+    private final long burstNanos;
+    private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param burstPermits     how many permits may be taken at once after an idle period
+     */
+    public TokenBucket(long permitsPerSecond, long burstPermits) {
+        if (permitsPerSecond <= 0 || burstPermits <= 0) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        // scaled so that byte rates close to 1e9/s keep their precision
+        this.nanosPerPermitScaled = Math.max(1, TimeUnit.SECONDS.toNanos(1) * SCALE / permitsPerSecond);
+        this.burstNanos = burstPermits * nanosPerPermitScaled / SCALE;
+    }
+
+    /**
+     * Takes {@code permits} unconditionally.
+     *
+     * @return nanoseconds the caller should pause for the bucket to be back within its burst, 0 if none
+     */
+    public long acquire(long permits, long nowNanos) {
+        long cost = permits * nanosPerPermitScaled / SCALE;
+        while (true) {
+            long current = tat.get();
+            long start = current == Long.MIN_VALUE ? nowNanos : Math.max(current, nowNanos);
+            long next = start + cost;
+            if (tat.compareAndSet(current, next)) {
+                return Math.max(0, next - nowNanos - burstNanos);
+            }
+        }
+    }
+
+    /**
+     * Current overdraft without taking anything.
+     */
+    public long delayNanos(long nowNanos) {
+        long current = tat.get();
+        return current == Long.MIN_VALUE ? 0 : Math.max(0, current - nowNanos - burstNanos);
+    }
+}
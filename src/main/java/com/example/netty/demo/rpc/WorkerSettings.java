@@ -0,0 +1,42 @@
+package com.example.netty.demo.rpc;
+
+/**
+ * Shape of the server's worker event loop group: how many loops, what their threads are called, and
+ * which CPUs they are pinned to.
+ */
+public final class WorkerSettings {
+
+    private final int threads;
+    private final String threadPrefix;
+    private final int[] cpus;
+
+    /**
+     * @param threads      number of worker loops; 0 keeps Netty's default of twice the core count
+     * @param threadPrefix thread name prefix
+     * @param cpus         CPU ids to pin loops to round-robin, or {@code null} for no pinning
+     */
+    public WorkerSettings(int threads, String threadPrefix, int[] cpus) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("threads must not be negative: " + threads);
+        }
+        this.threads = threads;
+        this.threadPrefix = threadPrefix;
+        this.cpus = cpus != null ? cpus.clone() : null;
+    }
+
+    public static WorkerSettings defaults() {
+        return new WorkerSettings(0, "rpc-worker", null);
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public String threadPrefix() {
+        return threadPrefix;
+    }
+
+    public int[] cpus() {
+        return cpus != null ? cpus.clone() : null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.netty.demo.trace;
+
+/**
+ * Immutable, finished hop of a trace as stored in the {@link SpanRingBuffer}.
+ */
+public final class Span {
+
+    private final long traceId;
+    private final long spanId;
+    private final String side;
+    private final long requestId;
+    private final long[] stamps;
+
+    Span(TraceContext ctx, String side, long requestId) {
+        this.traceId = ctx.traceId();
+        this.spanId = ctx.spanId();
+        this.side = side;
+        this.requestId = requestId;
+        this.stamps = ctx.copyOfStamps();
+    }
+
+    public long traceId() {
+        return traceId;
+    }
+
+    public String side() {
+        return side;
+    }
+
+    /**
+     * Nanoseconds between two stages, or -1 if either was not recorded on this side.
+     */
+    public long between(Stage from, Stage to) {
+        long a = stamps[from.ordinal()];
+        long b = stamps[to.ordinal()];
+        return a == 0 || b == 0 ? -1 : b - a;
+    }
+
+    void appendJson(StringBuilder sb) {
+        sb.append("{\"traceId\":\"").append(Long.toHexString(traceId))
+          .append("\",\"spanId\":\"").append(Long.toHexString(spanId))
+          .append("\",\"side\":\"").append(side)
+          .append("\",\"requestId\":").append(requestId)
+          .append(",\"encodeNs\":").append(between(Stage.ENCODE_START, Stage.ENCODE_END))
+          .append(",\"decodeNs\":").append(between(Stage.DECODE_START, Stage.DECODE_END));
+        if ("server".equals(side)) {
+            sb.append(",\"queueNs\":").append(between(Stage.QUEUED, Stage.EXEC_START))
+              .append(",\"handlerNs\":").append(between(Stage.EXEC_START, Stage.EXEC_END))
+              .append(",\"serverNs\":").append(between(Stage.DECODE_START, Stage.ENCODE_END));
+        } else {
+            // network + remote time; subtract the matching server span's serverNs to isolate the network
+            sb.append(",\"waitNs\":").append(between(Stage.ENCODE_END, Stage.DECODE_START))
+              .append(",\"dispatchNs\":").append(between(Stage.DECODE_END, Stage.RESPONSE_RECEIVED))
+              .append(",\"totalNs\":").append(between(Stage.CALL_START, Stage.RESPONSE_RECEIVED));
+        }
+        sb.append('}');
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.netty.demo.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size, lock-free store of the most recent spans. Writers claim a slot with one
+ * {@code getAndIncrement} and overwrite whatever was there; readers get a best-effort snapshot.
+ */
+public final class SpanRingBuffer {
+
+    private final AtomicReferenceArray<Span> slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    public SpanRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public void publish(Span span) {
+        slots.lazySet((int) (cursor.getAndIncrement() & mask), span);
+    }
+
+    /**
+     * Spans currently held, oldest first.
+     */
+    public List<Span> snapshot() {
+        long end = cursor.get();
+        long start = Math.max(0, end - slots.length());
+        List<Span> spans = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Span span = slots.get((int) (i & mask));
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Span span : snapshot()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            span.appendJson(sb);
+        }
+        return sb.append(']').toString();
+    }
+}
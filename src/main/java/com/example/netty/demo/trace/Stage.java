@@ -0,0 +1,17 @@
+package com.example.netty.demo.trace;
+
+/**
+ * Points in the life of one RPC at which a sampled span records {@link System#nanoTime()}.
+ * Client and server spans use the subset that applies to their side.
+ */
+public enum Stage {
+    CALL_START,
+    ENCODE_START,
+    ENCODE_END,
+    DECODE_START,
+    DECODE_END,
+    QUEUED,
+    EXEC_START,
+    EXEC_END,
+    RESPONSE_RECEIVED
+}
@@ -0,0 +1,65 @@
+package com.example.netty.demo.trace;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace ids carried in the {@code DemoMessage} header plus the stage timestamps collected locally for
+ * this hop. Timestamps never go on the wire; they are only taken when the trace is sampled.
+ */
+public final class TraceContext {
+
+    private final long traceId;
+    private final long spanId;
+    private final boolean sampled;
+    private final long[] stamps;
+
+    public TraceContext(long traceId, long spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+        this.stamps = sampled ? new long[Stage.values().length] : null;
+    }
+
+    public static TraceContext newRoot() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new TraceContext(random.nextLong(), random.nextLong(), true);
+    }
+
+    public long traceId() {
+        return traceId;
+    }
+
+    public long spanId() {
+        return spanId;
+    }
+
+    public boolean sampled() {
+        return sampled;
+    }
+
+    public void stamp(Stage stage) {
+        if (sampled) {
+            stamps[stage.ordinal()] = System.nanoTime();
+        }
+    }
+
+    /**
+     * Moves the stages recorded on a decoded message's context onto the long-lived span of the call.
+     */
+    public void copyStamps(TraceContext from, Stage... stages) {
+        if (!sampled || from == null || !from.sampled) {
+            return;
+        }
+        for (Stage stage : stages) {
+            stamps[stage.ordinal()] = from.stamps[stage.ordinal()];
+        }
+    }
+
+    long stampOf(Stage stage) {
+        return stamps[stage.ordinal()];
+    }
+
+    long[] copyOfStamps() {
+        return stamps.clone();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.netty.demo.trace;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Process-wide sampling decision and span sink. Unsampled calls carry no trace context at all, so
+ * the only cost they pay is one random draw in {@link #maybeStart()}.
+ */
+public final class Tracer {
+
+    private static final SpanRingBuffer SPANS = new SpanRingBuffer(4096);
+
+    private static volatile double sampleRate = 0.01;
+
+    private Tracer() {
+    }
+
+    public static void setSampleRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be in [0,1]: " + rate);
+        }
+        sampleRate = rate;
+    }
+
+    /**
+     * @return a new sampled root context, or {@code null} if this call is not sampled
+     */
+    public static TraceContext maybeStart() {
+        double rate = sampleRate;
+        if (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate) {
+            return null;
+        }
+        return TraceContext.newRoot();
+    }
+
+    public static void finish(TraceContext ctx, String side, long requestId) {
+        if (ctx != null && ctx.sampled()) {
+            SPANS.publish(new Span(ctx, side, requestId));
+        }
+    }
+
+    public static SpanRingBuffer spans() {
+        return SPANS;
+    }
+}
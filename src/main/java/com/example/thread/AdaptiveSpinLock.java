@@ -0,0 +1,503 @@
+package com.example.thread;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应"先自旋、再停车"的可重入锁（基于 AQS）
+ *
+ * ReentrantLock 不论公平与否，抢不到锁后很快就进入 AQS 队列 park，
+ * 一次 park/unpark 要几微秒；临界区只有几百纳秒时，这比临界区本身贵一个数量级。
+ *
+ * 核心知识点：
+ * 1. 持有者释放锁时把本次持有时间计入指数滑动平均（EWMA，每 8 次采样一次），只有持有者写，无需同步
+ * 2. 抢锁失败后先自旋：时长 = 平均持有时间的 2 倍，上限 maxSpinNanos；
+ *    平均持有时间超过上限说明临界区太长，直接停车不自旋
+ * 3. 单核机器上自旋毫无意义（持有者在等 CPU），自旋预算恒为 0
+ * 4. 自旋失败才走 AQS.acquire 排队 park；统计快路径、自旋成功、停车三类加锁次数
+ *
+ * main 方法是手写的对比：不同线程数下与公平 / 非公平 ReentrantLock 的吞吐。
+ *
+ * @author java_learn
+ */
+public class AdaptiveSpinLock implements Lock {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // ==================== 1. 同步器 ====================
+
+    /** 默认自旋上限 20 微秒，约为几次 park/unpark 的开销 */
+    public static final long DEFAULT_MAX_SPIN_NANOS = 20_000;
+
+    private static final int HOLD_SAMPLE_EVERY = 8;
+
+    private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * 与 ReentrantLock.NonfairSync 相同的可重入语义：state 为重入次数
+     */
+    static final class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 1L;
+
+        /** 只在 state 为 0 时尝试一次 CAS，自旋和快路径共用 */
+        boolean tryGrab() {
+            if (getState() == 0 && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+
+        boolean isFree() {
+            return getState() == 0;
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerThread()) {
+                int next = c + acquires;
+                if (next < 0) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                setState(next);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int releases) {
+            if (Thread.currentThread() != getExclusiveOwnerThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            int c = getState() - releases;
+            boolean free = c == 0;
+            if (free) {
+                setExclusiveOwnerThread(null);
+            }
+            setState(c);
+            return free;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        int holdCount() {
+            return isHeldExclusively() ? getState() : 0;
+        }
+
+        Condition newCondition() {
+            return new ConditionObject();
+        }
+    }
+
+    private final Sync sync = new Sync();
+    private final long maxSpinNanos;
+
+    // 平均持有时间（纳秒）：只有持有者在释放时写
+    private volatile long avgHoldNanos;
+    // 最外层加锁的总次数与被采样的加锁时间（0 表示本次不采样）；只有持有者在锁内读写，不需要原子操作
+    private long acquisitions;
+    private long acquiredAt;
+
+    // 快路径次数 = acquisitions - 自旋 - 停车，快路径上不再额外计数
+    private final StripedCounter spinAcquires = new StripedCounter(StripedCounter.Mode.RELAXED, 1);
+    private final StripedCounter parkedAcquires = new StripedCounter(StripedCounter.Mode.RELAXED, 1);
+    private final StripedCounter skippedSpins = new StripedCounter(StripedCounter.Mode.RELAXED, 1);
+
+    public AdaptiveSpinLock() {
+        this(DEFAULT_MAX_SPIN_NANOS);
+    }
+
+    /**
+     * @param maxSpinNanos 单次自旋的上限；平均持有时间超过它就不再自旋
+     */
+    public AdaptiveSpinLock(long maxSpinNanos) {
+        if (maxSpinNanos < 0) {
+            throw new IllegalArgumentException("maxSpinNanos 不能为负: " + maxSpinNanos);
+        }
+        this.maxSpinNanos = maxSpinNanos;
+    }
+
+    // ==================== 2. 加锁与释放 ====================
+
+    @Override
+    public void lock() {
+        if (!fastPath()) {
+            if (spin()) {
+                spinAcquires.increment();
+            } else {
+                sync.acquire(1);
+                parkedAcquires.increment();
+            }
+        }
+        onAcquired();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (!fastPath()) {
+            if (spin()) {
+                spinAcquires.increment();
+            } else {
+                sync.acquireInterruptibly(1);
+                parkedAcquires.increment();
+            }
+        }
+        onAcquired();
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (sync.tryAcquire(1)) {
+            onAcquired();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (!fastPath()) {
+            if (spin()) {
+                spinAcquires.increment();
+            } else if (sync.tryAcquireNanos(1, unit.toNanos(time))) {
+                parkedAcquires.increment();
+            } else {
+                return false;
+            }
+        }
+        onAcquired();
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (acquiredAt != 0 && sync.holdCount() == 1) {
+            endHold();
+        }
+        sync.release(1);
+    }
+
+    @Override
+    public Condition newCondition() {
+        return new SpinCondition(sync.newCondition());
+    }
+
+    /** 把本次被采样的持有时间计入平均值 */
+    private void endHold() {
+        long held = System.nanoTime() - acquiredAt;
+        long avg = avgHoldNanos;
+        // EWMA，权重 1/8
+        avgHoldNanos = avg + ((held - avg) >> 3);
+        acquiredAt = 0;
+    }
+
+    private boolean fastPath() {
+        return sync.tryAcquire(1);
+    }
+
+    /**
+     * 每 8 次最外层加锁采样一次持有时间，省掉大多数 nanoTime 调用
+     */
+    private void onAcquired() {
+        if (sync.holdCount() == 1) {
+            acquiredAt = (acquisitions++ & (HOLD_SAMPLE_EVERY - 1)) == 0 ? System.nanoTime() : 0;
+        }
+    }
+
+    /**
+     * 在预算内反复尝试；有线程已经在 AQS 队列里排队时不自旋，避免插队饿死它们
+     */
+    private boolean spin() {
+        long budget = spinBudgetNanos();
+        if (budget == 0 || sync.hasQueuedThreads()) {
+            skippedSpins.increment();
+            return false;
+        }
+        long deadline = System.nanoTime() + budget;
+        do {
+            if (sync.tryGrab()) {
+                return true;
+            }
+            Thread.onSpinWait();
+        } while (System.nanoTime() - deadline < 0);
+        return false;
+    }
+
+    /**
+     * 当前自旋预算：平均持有时间的 2 倍，不超过 maxSpinNanos；单核或临界区太长时为 0
+     */
+    public long spinBudgetNanos() {
+        long avg = avgHoldNanos;
+        if (!MULTI_CORE || avg > maxSpinNanos) {
+            return 0;
+        }
+        return Math.min(maxSpinNanos, Math.max(avg * 2, 1_000));
+    }
+
+    /**
+     * await 会整体释放锁、醒来后再重新拿回：释放前先结算持有时间，拿回后重新打时间戳，
+     * 否则 acquiredAt 会把等待时间算进持有时间，也可能被等待期间的其他持有者覆盖
+     */
+    private final class SpinCondition implements Condition {
+        private final Condition delegate;
+
+        SpinCondition(Condition delegate) {
+            this.delegate = delegate;
+        }
+
+        /** @return 本次持有是否被采样，决定重新拿到锁后是否打时间戳 */
+        private boolean beforeAwait() {
+            if (!sync.isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            boolean sampled = acquiredAt != 0;
+            if (sampled) {
+                endHold();
+            }
+            return sampled;
+        }
+
+        private void afterAwait(boolean sampled) {
+            if (sampled) {
+                acquiredAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            boolean sampled = beforeAwait();
+            try {
+                delegate.await();
+            } finally {
+                afterAwait(sampled);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            boolean sampled = beforeAwait();
+            try {
+                delegate.awaitUninterruptibly();
+            } finally {
+                afterAwait(sampled);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            boolean sampled = beforeAwait();
+            try {
+                return delegate.awaitNanos(nanosTimeout);
+            } finally {
+                afterAwait(sampled);
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            boolean sampled = beforeAwait();
+            try {
+                return delegate.await(time, unit);
+            } finally {
+                afterAwait(sampled);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            boolean sampled = beforeAwait();
+            try {
+                return delegate.awaitUntil(deadline);
+            } finally {
+                afterAwait(sampled);
+            }
+        }
+
+        @Override
+        public void signal() {
+            delegate.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            delegate.signalAll();
+        }
+    }
+
+    // ==================== 3. 状态与统计 ====================
+
+    public boolean isLocked() {
+        return !sync.isFree();
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    public int getHoldCount() {
+        return sync.holdCount();
+    }
+
+    public long averageHoldNanos() {
+        return avgHoldNanos;
+    }
+
+    /** 第一次尝试就拿到锁（由总次数推算，并发加锁时是近似值） */
+    public long fastAcquires() {
+        return acquisitions - spinAcquires() - parkedAcquires();
+    }
+
+    /** 自旋期间拿到锁 */
+    public long spinAcquires() {
+        return spinAcquires.sum();
+    }
+
+    /** 进入 AQS 队列（可能 park）后拿到锁 */
+    public long parkedAcquires() {
+        return parkedAcquires.sum();
+    }
+
+    /** 因预算为 0 或已有排队线程而跳过自旋的次数 */
+    public long skippedSpins() {
+        return skippedSpins.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveSpinLock{avgHoldNanos=" + avgHoldNanos + ", fast=" + fastAcquires()
+            + ", spin=" + spinAcquires() + ", parked=" + parkedAcquires() + ", skippedSpins=" + skippedSpins() + '}';
+    }
+
+    // ==================== 4. 对比测试 ====================
+
+    private static volatile long blackhole;
+
+    /**
+     * 临界区：对 16 个 long 做几轮混洗，约几百纳秒
+     */
+    static final class SharedState {
+        final long[] cells = new long[16];
+
+        void mutate(int rounds) {
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = cells[i] * 31 + cells[(i + 1) & 15] + r;
+                }
+            }
+        }
+    }
+
+    private static double run(Lock lock, int threads, int perThread, int csRounds, int thinkRounds)
+        throws InterruptedException {
+        SharedState state = new SharedState();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                SharedState local = new SharedState();
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        lock.lock();
+                        try {
+                            state.mutate(csRounds);
+                        } finally {
+                            lock.unlock();
+                        }
+                        // 临界区外的工作
+                        local.mutate(thinkRounds);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    blackhole += local.cells[0];
+                    done.countDown();
+                }
+            }, "bench-lock-" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        blackhole += state.cells[0];
+        return (double) threads * perThread / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    interface LockFactory {
+        Lock create();
+    }
+
+    private static double best(LockFactory factory, int threads, int perThread, int csRounds, int thinkRounds,
+                               Lock[] last) throws InterruptedException {
+        run(factory.create(), threads, perThread / 4, csRounds, thinkRounds);
+        double best = 0;
+        for (int i = 0; i < 3; i++) {
+            Lock lock = factory.create();
+            best = Math.max(best, run(lock, threads, perThread, csRounds, thinkRounds));
+            last[0] = lock;
+        }
+        return best;
+    }
+
+    public static void benchmark(int perThread, int csRounds, int thinkRounds) throws InterruptedException {
+        System.out.println("【自适应自旋锁 vs ReentrantLock（ops/s）】");
+        System.out.println(repeat("-", 50));
+        System.out.println("CPU 核心数: " + Runtime.getRuntime().availableProcessors()
+            + ", 每线程加锁次数: " + perThread + ", 临界区轮数: " + csRounds + ", 临界区外轮数: " + thinkRounds);
+        if (!MULTI_CORE) {
+            System.out.println("（单核环境：自旋预算恒为 0，AdaptiveSpinLock 退化为直接排队）");
+        }
+        System.out.printf("%-8s %14s %14s %14s   %s%n", "threads", "unfair", "fair", "adaptive", "adaptive 加锁分布");
+        Lock[] last = new Lock[1];
+        for (int threads = 1; threads <= 16; threads *= 2) {
+            double unfair = best(() -> new ReentrantLock(false), threads, perThread, csRounds, thinkRounds, last);
+            double fair = best(() -> new ReentrantLock(true), threads, perThread / 10, csRounds, thinkRounds, last);
+            double adaptive = best(AdaptiveSpinLock::new, threads, perThread, csRounds, thinkRounds, last);
+            AdaptiveSpinLock lock = (AdaptiveSpinLock) last[0];
+            System.out.printf("%-8d %,14.0f %,14.0f %,14.0f   fast=%d spin=%d parked=%d avgHold=%dns%n",
+                threads, unfair, fair, adaptive, lock.fastAcquires(), lock.spinAcquires(), lock.parkedAcquires(),
+                lock.averageHoldNanos());
+        }
+        System.out.println();
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[每线程加锁次数] [临界区轮数] [临界区外轮数]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int csRounds = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int thinkRounds = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        System.out.println("=== 自适应自旋锁 ===\n");
+        benchmark(perThread, csRounds, thinkRounds);
+    }
+}
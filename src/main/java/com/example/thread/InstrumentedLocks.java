@@ -0,0 +1,843 @@
+package com.example.thread;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 带竞争画像的锁：ReentrantLock / ReentrantReadWriteLock / Condition 的可替换子类
+ *
+ * 直接继承 JDK 的锁类，所以 ReentrantLockDemo 里的
+ * {@code new ReentrantLock()} 换成 {@code new InstrumentedReentrantLock("name")} 即可，其余代码不用改。
+ *
+ * 核心知识点：
+ * 1. 采样：每次加锁掷一次骰子，只有 1/sampleEvery 的加锁被测量，未采样的路径只多一次 ThreadLocalRandom 调用
+ * 2. 被采样的加锁记录：等待时间、持有时间、加锁时排队线程数、当时持有锁的线程（谁挡住了别人）
+ * 3. 直方图按 2 的幂分桶，无锁记录；同名的锁共享一个 LockProfile，按"锁的用途"而不是实例聚合
+ * 4. snapshot() 拿到所有锁的统计；发生竞争的采样同时提交 JFR 自定义事件 com.example.thread.LockContention，
+ *    可以在 JMC 里按线程、按栈查看
+ *
+ * @author java_learn
+ */
+public class InstrumentedLocks {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /** 默认每 16 次加锁采样一次 */
+    public static final int DEFAULT_SAMPLE_EVERY = 16;
+
+    private static final Map<String, LockProfile> PROFILES = new ConcurrentHashMap<>();
+
+    /**
+     * 同名共享一个画像；sampleEvery 以第一次创建时为准
+     */
+    public static LockProfile profile(String name, int sampleEvery) {
+        return PROFILES.computeIfAbsent(name, n -> new LockProfile(n, sampleEvery));
+    }
+
+    /**
+     * 所有锁的当前统计，按总等待时间从高到低排序
+     */
+    public static List<LockProfile.Snapshot> snapshot() {
+        List<LockProfile.Snapshot> list = new ArrayList<>();
+        for (LockProfile profile : PROFILES.values()) {
+            list.add(profile.snapshot());
+        }
+        list.sort(Comparator.comparingLong((LockProfile.Snapshot s) -> s.waitNanos.sum).reversed());
+        return list;
+    }
+
+    // ==================== 1. 对数直方图 ====================
+
+    /**
+     * 按 2 的幂分桶：桶 i 装 [2^(i-1), 2^i) 的值，桶 0 装 0。并发记录无锁
+     */
+    public static final class LogHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+            count.increment();
+            sum.add(v);
+            long m;
+            while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+                // 重试
+            }
+        }
+
+        public Summary summary() {
+            long[] counts = new long[64];
+            for (int i = 0; i < 64; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new Summary(counts, count.sum(), sum.sum(), max.get());
+        }
+    }
+
+    /**
+     * 直方图的不可变副本
+     */
+    public static final class Summary {
+        public final long count;
+        public final long sum;
+        public final long max;
+        private final long[] buckets;
+
+        Summary(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 从 earlier 到现在这一段的增量（用于按周期统计）。max 无法相减，仍为累计值
+         */
+        public Summary since(Summary earlier) {
+            long[] delta = new long[buckets.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = buckets[i] - earlier.buckets[i];
+            }
+            return new Summary(delta, count - earlier.count, sum - earlier.sum, max);
+        }
+
+        /**
+         * 分位数所在桶的上界（不超过 max），精度为 2 倍以内
+         */
+        public long percentile(double p) {
+            long total = 0;
+            for (long c : buckets) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p / 100.0 * total);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.0f p50=%d p99=%d max=%d", count, mean(), percentile(50),
+                percentile(99), max);
+        }
+    }
+
+    // ==================== 2. 锁画像 ====================
+
+    /**
+     * 一类锁的统计：等待、持有、排队、持有者，以及 Condition 的等待
+     */
+    public static final class LockProfile {
+        private static final int MAX_OWNERS = 64;
+        private static final String OTHER_OWNERS = "<other>";
+
+        private final String name;
+        private final int sampleEvery;
+
+        final LogHistogram waitNanos = new LogHistogram();
+        final LogHistogram holdNanos = new LogHistogram();
+        final LogHistogram queueLength = new LogHistogram();
+        final LogHistogram conditionWaitNanos = new LogHistogram();
+        private final LongAdder contended = new LongAdder();
+        private final Map<String, LongAdder> blockingOwners = new ConcurrentHashMap<>();
+
+        LockProfile(String name, int sampleEvery) {
+            if (sampleEvery <= 0) {
+                throw new IllegalArgumentException("sampleEvery 必须为正数: " + sampleEvery);
+            }
+            this.name = name;
+            this.sampleEvery = sampleEvery;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        boolean sample() {
+            return sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+        }
+
+        void recordAcquire(long waited, int queued, Thread owner) {
+            waitNanos.record(waited);
+            queueLength.record(queued);
+            boolean blocked = owner != null && owner != Thread.currentThread();
+            if (blocked) {
+                contended.increment();
+                String key = owner.getName();
+                LongAdder c = blockingOwners.get(key);
+                if (c == null) {
+                    if (blockingOwners.size() >= MAX_OWNERS) {
+                        key = OTHER_OWNERS;
+                    }
+                    c = blockingOwners.computeIfAbsent(key, k -> new LongAdder());
+                }
+                c.increment();
+            }
+            // 只有加锁前就有人持有或排队的采样才算竞争，否则 waited 只是 nanoTime 本身的开销
+            if (blocked || queued > 0) {
+                LockContentionEvent event = new LockContentionEvent();
+                if (event.shouldCommit()) {
+                    event.lockName = name;
+                    event.waitTime = waited;
+                    event.queueLength = queued;
+                    event.owner = owner != null ? owner.getName() : null;
+                    event.commit();
+                }
+            }
+        }
+
+        public Snapshot snapshot() {
+            List<Map.Entry<String, LongAdder>> entries = new ArrayList<>(blockingOwners.entrySet());
+            entries.sort(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed());
+            Map<String, Long> owners = new LinkedHashMap<>();
+            for (Map.Entry<String, LongAdder> e : entries) {
+                owners.put(e.getKey(), e.getValue().sum());
+            }
+            return new Snapshot(name, sampleEvery, waitNanos.summary(), holdNanos.summary(),
+                queueLength.summary(), conditionWaitNanos.summary(), contended.sum(),
+                Collections.unmodifiableMap(owners));
+        }
+
+        /**
+         * 某一时刻的统计。计数都是采样数，乘以 sampleEvery 可估算真实次数
+         */
+        public static final class Snapshot {
+            public final String name;
+            public final int sampleEvery;
+            public final Summary waitNanos;
+            public final Summary holdNanos;
+            public final Summary queueLength;
+            public final Summary conditionWaitNanos;
+            /** 采样时锁正被其他线程持有的次数 */
+            public final long contended;
+            /** 挡住别人的持有线程 -> 次数，从多到少 */
+            public final Map<String, Long> blockingOwners;
+
+            Snapshot(String name, int sampleEvery, Summary waitNanos, Summary holdNanos, Summary queueLength,
+                     Summary conditionWaitNanos, long contended, Map<String, Long> blockingOwners) {
+                this.name = name;
+                this.sampleEvery = sampleEvery;
+                this.waitNanos = waitNanos;
+                this.holdNanos = holdNanos;
+                this.queueLength = queueLength;
+                this.conditionWaitNanos = conditionWaitNanos;
+                this.contended = contended;
+                this.blockingOwners = blockingOwners;
+            }
+
+            public double contentionRate() {
+                return waitNanos.count == 0 ? 0 : (double) contended / waitNanos.count;
+            }
+
+            @Override
+            public String toString() {
+                return name + " (1/" + sampleEvery + " 采样)\n"
+                    + "  等待(ns):      " + waitNanos + "\n"
+                    + "  持有(ns):      " + holdNanos + "\n"
+                    + "  排队线程数:    " + queueLength + "\n"
+                    + "  条件等待(ns):  " + conditionWaitNanos + "\n"
+                    + String.format("  竞争比例:      %.1f%%%n", contentionRate() * 100)
+                    + "  挡路的持有者:  " + blockingOwners;
+            }
+        }
+    }
+
+    // ==================== 3. JFR 事件 ====================
+
+    /**
+     * 被采样、且加锁时锁已被占用或有人排队的加锁。duration 之外单独带 waitTime，方便在 JMC 里按字段排序
+     */
+    @Name("com.example.thread.LockContention")
+    @Label("Lock Contention")
+    @Category({"Java Application", "Locks"})
+    @Description("Sampled acquisition of an instrumented lock that was held or queued on")
+    public static final class LockContentionEvent extends Event {
+        @Label("Lock Name")
+        String lockName;
+
+        @Label("Wait Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitTime;
+
+        @Label("Queue Length")
+        int queueLength;
+
+        @Label("Owner Thread")
+        String owner;
+    }
+
+    // ==================== 4. ReentrantLock ====================
+
+    /**
+     * 可直接替换 ReentrantLock。持有时间只统计最外层的一次加锁
+     */
+    public static class InstrumentedReentrantLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        private final LockProfile profile;
+        // 被采样的最外层持有开始时间；只有持有者读写
+        private long holdStart;
+
+        public InstrumentedReentrantLock(String name) {
+            this(name, false, DEFAULT_SAMPLE_EVERY);
+        }
+
+        public InstrumentedReentrantLock(String name, boolean fair, int sampleEvery) {
+            super(fair);
+            this.profile = InstrumentedLocks.profile(name, sampleEvery);
+        }
+
+        public LockProfile profile() {
+            return profile;
+        }
+
+        @Override
+        public void lock() {
+            if (!profile.sample()) {
+                super.lock();
+                return;
+            }
+            int queued = getQueueLength();
+            Thread owner = getOwner();
+            long t0 = System.nanoTime();
+            super.lock();
+            acquired(t0, queued, owner);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (!profile.sample()) {
+                super.lockInterruptibly();
+                return;
+            }
+            int queued = getQueueLength();
+            Thread owner = getOwner();
+            long t0 = System.nanoTime();
+            super.lockInterruptibly();
+            acquired(t0, queued, owner);
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (!profile.sample()) {
+                return super.tryLock();
+            }
+            Thread owner = getOwner();
+            long t0 = System.nanoTime();
+            if (!super.tryLock()) {
+                return false;
+            }
+            acquired(t0, 0, owner);
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            if (!profile.sample()) {
+                return super.tryLock(timeout, unit);
+            }
+            int queued = getQueueLength();
+            Thread owner = getOwner();
+            long t0 = System.nanoTime();
+            if (!super.tryLock(timeout, unit)) {
+                profile.waitNanos.record(System.nanoTime() - t0);
+                return false;
+            }
+            acquired(t0, queued, owner);
+            return true;
+        }
+
+        private void acquired(long t0, int queued, Thread owner) {
+            long now = System.nanoTime();
+            profile.recordAcquire(now - t0, queued, owner);
+            if (getHoldCount() == 1) {
+                holdStart = now;
+            }
+        }
+
+        @Override
+        public void unlock() {
+            endHold();
+            super.unlock();
+        }
+
+        // 最外层释放（或 await 整体释放）前收尾持有时间
+        void endHold() {
+            if (holdStart != 0 && isHeldByCurrentThread() && getHoldCount() == 1) {
+                profile.holdNanos.record(System.nanoTime() - holdStart);
+                holdStart = 0;
+            }
+        }
+
+        void endHoldForAwait() {
+            if (holdStart != 0 && isHeldByCurrentThread()) {
+                profile.holdNanos.record(System.nanoTime() - holdStart);
+                holdStart = 0;
+            }
+        }
+
+        @Override
+        public Condition newCondition() {
+            return new InstrumentedCondition(super.newCondition(), this);
+        }
+
+        @Override
+        public boolean hasWaiters(Condition condition) {
+            return super.hasWaiters(unwrap(condition));
+        }
+
+        @Override
+        public int getWaitQueueLength(Condition condition) {
+            return super.getWaitQueueLength(unwrap(condition));
+        }
+
+        private static Condition unwrap(Condition condition) {
+            return condition instanceof InstrumentedCondition ? ((InstrumentedCondition) condition).delegate : condition;
+        }
+    }
+
+    // ==================== 5. Condition ====================
+
+    /**
+     * 记录 await 的时长（从释放锁到被唤醒并重新拿到锁）。await 会整体释放锁，
+     * 所以进入 await 时结束当前的持有计时
+     */
+    public static final class InstrumentedCondition implements Condition {
+        final Condition delegate;
+        private final InstrumentedReentrantLock lock;
+
+        InstrumentedCondition(Condition delegate, InstrumentedReentrantLock lock) {
+            this.delegate = delegate;
+            this.lock = lock;
+        }
+
+        private long begin() {
+            lock.endHoldForAwait();
+            return lock.profile.sample() ? System.nanoTime() : 0;
+        }
+
+        private void end(long t0) {
+            if (t0 != 0) {
+                lock.profile.conditionWaitNanos.record(System.nanoTime() - t0);
+            }
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            long t0 = begin();
+            try {
+                delegate.await();
+            } finally {
+                end(t0);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            long t0 = begin();
+            try {
+                delegate.awaitUninterruptibly();
+            } finally {
+                end(t0);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            long t0 = begin();
+            try {
+                return delegate.awaitNanos(nanosTimeout);
+            } finally {
+                end(t0);
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            long t0 = begin();
+            try {
+                return delegate.await(time, unit);
+            } finally {
+                end(t0);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            long t0 = begin();
+            try {
+                return delegate.awaitUntil(deadline);
+            } finally {
+                end(t0);
+            }
+        }
+
+        @Override
+        public void signal() {
+            delegate.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            delegate.signalAll();
+        }
+    }
+
+    // ==================== 6. ReentrantReadWriteLock ====================
+
+    /**
+     * 可直接替换 ReentrantReadWriteLock。读锁、写锁各有一个画像（name + ".read" / ".write"），
+     * 读锁的"持有者"记录的是当时的写锁持有者
+     */
+    public static class InstrumentedReadWriteLock extends ReentrantReadWriteLock {
+        private static final long serialVersionUID = 1L;
+
+        private final InstrumentedReadLock readLock;
+        private final InstrumentedWriteLock writeLock;
+
+        public InstrumentedReadWriteLock(String name) {
+            this(name, false, DEFAULT_SAMPLE_EVERY);
+        }
+
+        public InstrumentedReadWriteLock(String name, boolean fair, int sampleEvery) {
+            super(fair);
+            this.readLock = new InstrumentedReadLock(this, InstrumentedLocks.profile(name + ".read", sampleEvery));
+            this.writeLock = new InstrumentedWriteLock(this, InstrumentedLocks.profile(name + ".write", sampleEvery));
+        }
+
+        @Override
+        public ReentrantReadWriteLock.ReadLock readLock() {
+            return readLock;
+        }
+
+        @Override
+        public ReentrantReadWriteLock.WriteLock writeLock() {
+            return writeLock;
+        }
+
+        Thread writer() {
+            return getOwner();
+        }
+    }
+
+    static final class InstrumentedReadLock extends ReentrantReadWriteLock.ReadLock {
+        private static final long serialVersionUID = 1L;
+
+        private final InstrumentedReadWriteLock rw;
+        private final LockProfile profile;
+        // 读锁可被多个线程同时持有，持有开始时间按线程记
+        private final ThreadLocal<long[]> holdStart = ThreadLocal.withInitial(() -> new long[1]);
+        // 尚未释放的采样持有数：只在采样的获取/释放时改写，为 0 时 unlock 直接跳过 ThreadLocal 查找
+        private final AtomicInteger sampledHolds = new AtomicInteger();
+
+        InstrumentedReadLock(InstrumentedReadWriteLock rw, LockProfile profile) {
+            super(rw);
+            this.rw = rw;
+            this.profile = profile;
+        }
+
+        @Override
+        public void lock() {
+            if (!profile.sample()) {
+                super.lock();
+                return;
+            }
+            int queued = rw.getQueueLength();
+            Thread owner = rw.writer();
+            long t0 = System.nanoTime();
+            super.lock();
+            acquired(t0, queued, owner);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (!profile.sample()) {
+                super.lockInterruptibly();
+                return;
+            }
+            int queued = rw.getQueueLength();
+            Thread owner = rw.writer();
+            long t0 = System.nanoTime();
+            super.lockInterruptibly();
+            acquired(t0, queued, owner);
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            if (!profile.sample()) {
+                return super.tryLock(timeout, unit);
+            }
+            int queued = rw.getQueueLength();
+            Thread owner = rw.writer();
+            long t0 = System.nanoTime();
+            if (!super.tryLock(timeout, unit)) {
+                profile.waitNanos.record(System.nanoTime() - t0);
+                return false;
+            }
+            acquired(t0, queued, owner);
+            return true;
+        }
+
+        private void acquired(long t0, int queued, Thread owner) {
+            long now = System.nanoTime();
+            profile.recordAcquire(now - t0, queued, owner);
+            if (rw.getReadHoldCount() == 1) {
+                holdStart.get()[0] = now;
+                sampledHolds.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void unlock() {
+            if (sampledHolds.get() != 0 && rw.getReadHoldCount() == 1) {
+                long[] start = holdStart.get();
+                if (start[0] != 0) {
+                    profile.holdNanos.record(System.nanoTime() - start[0]);
+                    start[0] = 0;
+                    sampledHolds.decrementAndGet();
+                }
+            }
+            super.unlock();
+        }
+    }
+
+    static final class InstrumentedWriteLock extends ReentrantReadWriteLock.WriteLock {
+        private static final long serialVersionUID = 1L;
+
+        private final InstrumentedReadWriteLock rw;
+        private final LockProfile profile;
+        private long holdStart;
+
+        InstrumentedWriteLock(InstrumentedReadWriteLock rw, LockProfile profile) {
+            super(rw);
+            this.rw = rw;
+            this.profile = profile;
+        }
+
+        @Override
+        public void lock() {
+            if (!profile.sample()) {
+                super.lock();
+                return;
+            }
+            int queued = rw.getQueueLength();
+            Thread owner = rw.writer();
+            long t0 = System.nanoTime();
+            super.lock();
+            acquired(t0, queued, owner);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (!profile.sample()) {
+                super.lockInterruptibly();
+                return;
+            }
+            int queued = rw.getQueueLength();
+            Thread owner = rw.writer();
+            long t0 = System.nanoTime();
+            super.lockInterruptibly();
+            acquired(t0, queued, owner);
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            if (!profile.sample()) {
+                return super.tryLock(timeout, unit);
+            }
+            int queued = rw.getQueueLength();
+            Thread owner = rw.writer();
+            long t0 = System.nanoTime();
+            if (!super.tryLock(timeout, unit)) {
+                profile.waitNanos.record(System.nanoTime() - t0);
+                return false;
+            }
+            acquired(t0, queued, owner);
+            return true;
+        }
+
+        private void acquired(long t0, int queued, Thread owner) {
+            long now = System.nanoTime();
+            profile.recordAcquire(now - t0, queued, owner);
+            if (getHoldCount() == 1) {
+                holdStart = now;
+            }
+        }
+
+        @Override
+        public void unlock() {
+            if (holdStart != 0 && isHeldByCurrentThread() && getHoldCount() == 1) {
+                profile.holdNanos.record(System.nanoTime() - holdStart);
+                holdStart = 0;
+            }
+            super.unlock();
+        }
+    }
+
+    // ==================== 7. 演示 ====================
+
+    /**
+     * 与 ReentrantLockDemo.ProducerConsumer 相同的有界缓冲，只是锁换成了带画像的版本
+     */
+    static final class ProfiledBuffer {
+        private final InstrumentedReentrantLock lock = new InstrumentedReentrantLock("demo.buffer", false, 4);
+        private final Condition notFull = lock.newCondition();
+        private final Condition notEmpty = lock.newCondition();
+        private final int[] items = new int[5];
+        private int head;
+        private int count;
+
+        void produce(int value) throws InterruptedException {
+            lock.lock();
+            try {
+                while (count == items.length) {
+                    notFull.await();
+                }
+                items[(head + count) % items.length] = value;
+                count++;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int consume() throws InterruptedException {
+            lock.lock();
+            try {
+                while (count == 0) {
+                    notEmpty.await();
+                }
+                int value = items[head];
+                head = (head + 1) % items.length;
+                count--;
+                notFull.signal();
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static volatile long blackhole;
+
+    public static void demo() throws InterruptedException {
+        System.out.println("【带竞争画像的锁】");
+        System.out.println(repeat("-", 50));
+
+        ProfiledBuffer buffer = new ProfiledBuffer();
+        InstrumentedReadWriteLock rw = new InstrumentedReadWriteLock("demo.table", false, 4);
+        int[] table = new int[16];
+
+        int threads = 4;
+        int perThread = 50_000;
+        CountDownLatch done = new CountDownLatch(threads * 2 + 4);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        buffer.produce(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "Producer-" + t).start();
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        buffer.consume();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "Consumer-" + t).start();
+        }
+        for (int t = 0; t < 4; t++) {
+            boolean writer = t == 0;
+            new Thread(() -> {
+                long sink = 0;
+                for (int i = 0; i < 200_000; i++) {
+                    if (writer && i % 100 == 0) {
+                        rw.writeLock().lock();
+                        try {
+                            table[i % table.length] = i;
+                        } finally {
+                            rw.writeLock().unlock();
+                        }
+                    } else {
+                        rw.readLock().lock();
+                        try {
+                            sink += table[i % table.length];
+                        } finally {
+                            rw.readLock().unlock();
+                        }
+                    }
+                }
+                blackhole += sink;
+                done.countDown();
+            }, writer ? "Table-Writer" : "Table-Reader-" + t).start();
+        }
+        done.await();
+
+        for (LockProfile.Snapshot s : snapshot()) {
+            System.out.println(s);
+        }
+        System.out.println();
+        System.out.println("JFR：java -XX:StartFlightRecording=filename=locks.jfr ... 后在 JMC 中查看 Lock Contention 事件");
+        System.out.println();
+    }
+
+    // ==================== 主方法 ====================
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("=== 锁竞争画像 ===\n");
+        demo();
+    }
+}
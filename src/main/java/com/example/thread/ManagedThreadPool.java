@@ -0,0 +1,253 @@
+package com.example.thread;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 运行时可调整、带观测的线程池
+ *
+ * ThreadPoolDemo.ProductionPool.createPool 原来的 core / max / 队列容量在构造后就固定了，
+ * beforeExecute / afterExecute 钩子也是空的。这里：
+ *
+ * 核心知识点：
+ * 1. 队列换成 ResizableBlockingQueue，容量可在运行时修改
+ * 2. resize(core, max) 按正确的顺序调用 setCorePoolSize / setMaximumPoolSize
+ *    （JDK 9 起 core > max 会抛 IllegalArgumentException，所以扩容先调 max，缩容先调 core）
+ * 3. 钩子记录：排队时长（队列内记录）、执行时长、开始执行时的活动线程数；拒绝次数由包装后的拒绝策略统计
+ * 4. 活动线程数自己计数，不调用 getActiveCount()（那个方法要拿线程池的 mainLock）
+ * 5. stats() 返回一次快照，便于打印或上报
+ *
+ * @author java_learn
+ */
+public class ManagedThreadPool extends ThreadPoolExecutor {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private final String poolName;
+    private final ResizableBlockingQueue<Runnable> queue;
+
+    private final InstrumentedLocks.LogHistogram executionNanos = new InstrumentedLocks.LogHistogram();
+    private final InstrumentedLocks.LogHistogram activeThreads = new InstrumentedLocks.LogHistogram();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder failed = new LongAdder();
+    private final ThreadLocal<long[]> startedAt = ThreadLocal.withInitial(() -> new long[1]);
+
+    // ==================== 1. 构造 ====================
+
+    /**
+     * 与 ProductionPool 相同的配置：60 秒空闲回收，CustomThreadFactory 命名线程
+     */
+    public ManagedThreadPool(String poolName, int coreSize, int maxSize, int queueCapacity,
+                             RejectedExecutionHandler handler) {
+        this(poolName, coreSize, maxSize, new ResizableBlockingQueue<>(queueCapacity), handler);
+    }
+
+    private ManagedThreadPool(String poolName, int coreSize, int maxSize, ResizableBlockingQueue<Runnable> queue,
+                              RejectedExecutionHandler handler) {
+        super(coreSize, maxSize, 60L, TimeUnit.SECONDS, queue,
+            new ThreadPoolDemo.CustomThreadFactory(poolName), new CountingHandler(handler));
+        this.poolName = poolName;
+        this.queue = queue;
+    }
+
+    /**
+     * 统计拒绝次数后交给原来的拒绝策略
+     */
+    static final class CountingHandler implements RejectedExecutionHandler {
+        final RejectedExecutionHandler delegate;
+        final LongAdder rejected = new LongAdder();
+
+        CountingHandler(RejectedExecutionHandler delegate) {
+            if (delegate == null) {
+                throw new NullPointerException();
+            }
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejected.increment();
+            delegate.rejectedExecution(r, executor);
+        }
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        super.setRejectedExecutionHandler(new CountingHandler(handler));
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return ((CountingHandler) super.getRejectedExecutionHandler()).delegate;
+    }
+
+    public String poolName() {
+        return poolName;
+    }
+
+    // ==================== 2. 控制接口 ====================
+
+    /**
+     * 同时修改核心线程数和最大线程数，不需要关心调用顺序
+     */
+    public void resize(int coreSize, int maxSize) {
+        if (coreSize < 0 || maxSize <= 0 || maxSize < coreSize) {
+            throw new IllegalArgumentException("非法的线程数: core=" + coreSize + ", max=" + maxSize);
+        }
+        synchronized (this) {
+            if (maxSize >= getMaximumPoolSize()) {
+                setMaximumPoolSize(maxSize);
+                setCorePoolSize(coreSize);
+            } else {
+                setCorePoolSize(coreSize);
+                setMaximumPoolSize(maxSize);
+            }
+        }
+    }
+
+    /**
+     * 修改队列容量；调小时已排队的任务不会被丢弃
+     */
+    public void setQueueCapacity(int capacity) {
+        queue.setCapacity(capacity);
+    }
+
+    public int getQueueCapacity() {
+        return queue.getCapacity();
+    }
+
+    // ==================== 3. 钩子 ====================
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        activeThreads.record(running.incrementAndGet());
+        startedAt.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        executionNanos.record(System.nanoTime() - startedAt.get()[0]);
+        running.decrementAndGet();
+        if (t != null) {
+            failed.increment();
+        }
+    }
+
+    // ==================== 4. 快照 ====================
+
+    public Stats stats() {
+        return new Stats(this);
+    }
+
+    /**
+     * 线程池某一时刻的配置与统计
+     */
+    public static final class Stats {
+        public final String poolName;
+        public final int corePoolSize;
+        public final int maximumPoolSize;
+        public final int poolSize;
+        public final int activeThreads;
+        public final int queueSize;
+        public final int queueCapacity;
+        public final long completedTasks;
+        public final long failedTasks;
+        public final long rejectedTasks;
+        public final InstrumentedLocks.Summary queueWaitNanos;
+        public final InstrumentedLocks.Summary executionNanos;
+        public final InstrumentedLocks.Summary activeThreadsAtStart;
+
+        Stats(ManagedThreadPool pool) {
+            this.poolName = pool.poolName;
+            this.corePoolSize = pool.getCorePoolSize();
+            this.maximumPoolSize = pool.getMaximumPoolSize();
+            this.poolSize = pool.getPoolSize();
+            this.activeThreads = pool.running.get();
+            this.queueSize = pool.queue.size();
+            this.queueCapacity = pool.queue.getCapacity();
+            this.completedTasks = pool.getCompletedTaskCount();
+            this.failedTasks = pool.failed.sum();
+            this.rejectedTasks = ((CountingHandler) pool.getRawHandler()).rejected.sum();
+            this.queueWaitNanos = pool.queue.waitNanos();
+            this.executionNanos = pool.executionNanos.summary();
+            this.activeThreadsAtStart = pool.activeThreads.summary();
+        }
+
+        @Override
+        public String toString() {
+            return poolName + ": core=" + corePoolSize + " max=" + maximumPoolSize + " pool=" + poolSize
+                + " active=" + activeThreads + " queue=" + queueSize + "/" + queueCapacity + "\n"
+                + "  完成=" + completedTasks + " 失败=" + failedTasks + " 拒绝=" + rejectedTasks + "\n"
+                + "  排队(ns):        " + queueWaitNanos + "\n"
+                + "  执行(ns):        " + executionNanos + "\n"
+                + "  开始时活动线程: " + activeThreadsAtStart;
+        }
+    }
+
+    private RejectedExecutionHandler getRawHandler() {
+        return super.getRejectedExecutionHandler();
+    }
+
+    // ==================== 5. 演示 ====================
+
+    public static void demo() throws InterruptedException {
+        System.out.println("【运行时调整线程池】");
+        System.out.println(repeat("-", 50));
+
+        ManagedThreadPool pool = ThreadPoolDemo.ProductionPool.createPool("Managed", 2, 4, 20);
+        pool.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+
+        runLoad(pool, 200);
+        System.out.println("初始配置（2/4，队列 20），任务 5ms，200 个：");
+        System.out.println(pool.stats());
+
+        pool.resize(8, 16);
+        pool.setQueueCapacity(200);
+        runLoad(pool, 200);
+        System.out.println("\n调整为 8/16，队列 200 之后再跑 200 个：");
+        System.out.println(pool.stats());
+
+        pool.resize(1, 2);
+        pool.setQueueCapacity(10);
+        System.out.println("\n缩容为 1/2，队列 10：");
+        System.out.println(pool.stats());
+
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println();
+    }
+
+    private static void runLoad(ManagedThreadPool pool, int tasks) throws InterruptedException {
+        for (int i = 0; i < tasks; i++) {
+            pool.execute(() -> {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        // 被丢弃的任务不会执行，等队列排空、线程都空闲即可
+        while (pool.queue.size() > 0 || pool.running.get() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    // ==================== 主方法 ====================
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("=== 可调整、可观测线程池 ===\n");
+        demo();
+    }
+}
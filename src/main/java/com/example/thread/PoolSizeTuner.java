@@ -0,0 +1,338 @@
+package com.example.thread;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池大小自动调优控制器
+ *
+ * ThreadPoolDemo.BestPractices 里的"CPU 密集型 核心数+1、IO 密集型 核心数*2"只是起点，
+ * 真实负载的 IO 等待比例会变。这里周期性采样，用反馈控制找吞吐最高、又不违反排队延迟 SLO 的线程数。
+ *
+ * 核心知识点：
+ * 1. 每个周期取 ManagedThreadPool 统计的增量：完成数、拒绝数、排队时长、执行时长，以及进程 CPU 使用率
+ * 2. Little 定律：需要的并发 ≈ 到达率 × 平均执行时长，给出一个"至少要这么多线程"的估计
+ * 3. 排队 p99 超过 SLO 且 CPU 未饱和 → 扩容到 max(当前 + 步长, Little 估计)；CPU 已饱和时加线程没用，保持
+ * 4. 满足 SLO 时爬山：上次调整让吞吐涨了就继续同方向，跌了就反向并减半步长，
+ *    持平则尝试减少线程（省资源），但不低于 Little 估计
+ * 5. 结果用 resize() 作用于 ProductionPool.createPool 创建的池：调的是 core，max 不小于 core
+ *
+ * @author java_learn
+ */
+public class PoolSizeTuner implements AutoCloseable {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // 吞吐变化小于 5% 视为持平
+    private static final double PLATEAU = 0.05;
+    // Little 估计的余量
+    private static final double HEADROOM = 1.2;
+
+    private final ManagedThreadPool pool;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long queueWaitSloNanos;
+    private final double cpuCeiling;
+    private final long periodMillis;
+
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+
+    // 以下字段只在调度线程（或手动调用 tick 的线程）上访问
+    private long lastNanos;
+    private long lastCompleted;
+    private long lastRejected;
+    private int lastQueueSize;
+    private InstrumentedLocks.Summary lastQueueWait;
+    private InstrumentedLocks.Summary lastExecution;
+    private double lastThroughput = -1;
+    private int direction;
+    private int step;
+
+    private volatile Decision lastDecision;
+
+    /**
+     * @param pool              要调整的池
+     * @param minThreads        core 下限
+     * @param maxThreads        core 上限
+     * @param queueWaitSloMillis 排队时长 p99 的目标
+     * @param cpuCeiling        进程 CPU 使用率（0～1）超过它就认为 CPU 已饱和
+     * @param periodMillis      采样与调整周期
+     */
+    public PoolSizeTuner(ManagedThreadPool pool, int minThreads, int maxThreads, long queueWaitSloMillis,
+                         double cpuCeiling, long periodMillis) {
+        if (minThreads <= 0 || maxThreads < minThreads || periodMillis <= 0) {
+            throw new IllegalArgumentException("非法的调优参数: min=" + minThreads + ", max=" + maxThreads
+                + ", period=" + periodMillis);
+        }
+        this.pool = pool;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.queueWaitSloNanos = TimeUnit.MILLISECONDS.toNanos(queueWaitSloMillis);
+        this.cpuCeiling = cpuCeiling;
+        this.periodMillis = periodMillis;
+        this.step = Math.max(1, (maxThreads - minThreads) / 8);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, pool.poolName() + "-tuner");
+            t.setDaemon(true);
+            return t;
+        });
+        baseline();
+    }
+
+    /**
+     * 下限 1、上限 CPU 核数 * 16，排队 p99 目标 50ms，CPU 90% 视为饱和，每秒调整一次
+     */
+    public static PoolSizeTuner attach(ManagedThreadPool pool) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        PoolSizeTuner tuner = new PoolSizeTuner(pool, 1, cores * 16, 50, 0.9, 1_000);
+        tuner.start();
+        return tuner;
+    }
+
+    // ==================== 1. 调度 ====================
+
+    public synchronized void start() {
+        if (task == null) {
+            task = scheduler.scheduleWithFixedDelay(this::safeTick, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (task != null) {
+            task.cancel(false);
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void safeTick() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            System.err.println("线程池调优失败: " + e);
+        }
+    }
+
+    private void baseline() {
+        ManagedThreadPool.Stats stats = pool.stats();
+        lastNanos = System.nanoTime();
+        lastCompleted = stats.completedTasks;
+        lastRejected = stats.rejectedTasks;
+        lastQueueSize = stats.queueSize;
+        lastQueueWait = stats.queueWaitNanos;
+        lastExecution = stats.executionNanos;
+    }
+
+    // ==================== 2. 一次采样与决策 ====================
+
+    /**
+     * 采样一个周期的指标并调整线程数。start() 之后由调度线程调用，也可以手动调用
+     */
+    public synchronized Decision tick() {
+        ManagedThreadPool.Stats stats = pool.stats();
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastNanos) / 1e9);
+
+        long completed = stats.completedTasks - lastCompleted;
+        long rejected = stats.rejectedTasks - lastRejected;
+        long backlogGrowth = stats.queueSize - lastQueueSize;
+        InstrumentedLocks.Summary queueWait = stats.queueWaitNanos.since(lastQueueWait);
+        InstrumentedLocks.Summary execution = stats.executionNanos.since(lastExecution);
+        baseline();
+
+        double throughput = completed / seconds;
+        // 到达率：完成的 + 被拒绝的 + 本周期队列长度的变化都算到达；队列在消化积压时变化为负
+        double arrival = Math.max(0, completed + rejected + backlogGrowth) / seconds;
+        double meanExecSeconds = execution.mean() / 1e9;
+        int littleTarget = (int) Math.ceil(arrival * meanExecSeconds * HEADROOM);
+        long queueP99 = queueWait.count == 0 ? 0 : queueWait.percentile(99);
+        double cpu = processCpuLoad();
+        boolean cpuSaturated = cpu >= cpuCeiling;
+        boolean sloViolated = queueP99 > queueWaitSloNanos || rejected > 0;
+
+        int current = stats.corePoolSize;
+        int target;
+        String reason;
+        if (completed == 0 && stats.queueSize == 0 && stats.activeThreads == 0) {
+            target = current - step;
+            direction = -1;
+            reason = "空闲，缩容";
+        } else if (sloViolated && !cpuSaturated) {
+            target = Math.max(current + step, littleTarget);
+            direction = 1;
+            reason = "排队 p99 或拒绝超出 SLO，扩容";
+        } else if (sloViolated) {
+            target = current;
+            direction = 0;
+            reason = "超出 SLO 但 CPU 已饱和，加线程无益，保持";
+        } else if (lastThroughput < 0 || direction == 0) {
+            // 第一次或刚保持过：先试着往下走，看吞吐是否不变
+            direction = -1;
+            target = current - step;
+            reason = "开始探测";
+        } else {
+            double change = lastThroughput == 0 ? 0 : (throughput - lastThroughput) / lastThroughput;
+            if (change > PLATEAU) {
+                reason = "吞吐上升 " + percent(change) + "，继续同方向";
+            } else if (change < -PLATEAU) {
+                direction = -direction;
+                step = Math.max(1, step / 2);
+                reason = "吞吐下降 " + percent(change) + "，反向并减半步长";
+            } else {
+                direction = -1;
+                reason = "吞吐持平，尝试减少线程";
+            }
+            if (direction > 0 && cpuSaturated) {
+                direction = 0;
+                reason += "（CPU 已饱和，不再扩容）";
+            }
+            target = current + direction * step;
+        }
+        // 不论哪种情况都不低于 Little 估计（SLO 满足时也留足并发）
+        target = Math.max(target, Math.min(littleTarget, maxThreads));
+        target = Math.max(minThreads, Math.min(maxThreads, target));
+        if (target != current) {
+            pool.resize(target, Math.max(target, pool.getMaximumPoolSize()));
+        }
+        lastThroughput = throughput;
+
+        Decision decision = new Decision(current, target, throughput, arrival, queueP99, execution.mean(),
+            littleTarget, cpu, reason);
+        lastDecision = decision;
+        return decision;
+    }
+
+    private static String percent(double change) {
+        return String.format("%+.0f%%", change * 100);
+    }
+
+    /**
+     * 进程 CPU 使用率（0～1），取不到时返回 0
+     */
+    static double processCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            return load < 0 ? 0 : load;
+        }
+        return 0;
+    }
+
+    public Decision lastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * 一次调整的依据和结果
+     */
+    public static final class Decision {
+        public final int from;
+        public final int to;
+        public final double throughput;
+        public final double arrivalRate;
+        public final long queueWaitP99Nanos;
+        public final double meanExecutionNanos;
+        public final int littleTarget;
+        public final double cpuLoad;
+        public final String reason;
+
+        Decision(int from, int to, double throughput, double arrivalRate, long queueWaitP99Nanos,
+                 double meanExecutionNanos, int littleTarget, double cpuLoad, String reason) {
+            this.from = from;
+            this.to = to;
+            this.throughput = throughput;
+            this.arrivalRate = arrivalRate;
+            this.queueWaitP99Nanos = queueWaitP99Nanos;
+            this.meanExecutionNanos = meanExecutionNanos;
+            this.littleTarget = littleTarget;
+            this.cpuLoad = cpuLoad;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("core %d -> %d | 吞吐 %.0f/s 到达 %.0f/s 排队p99 %.1fms 执行 %.1fms "
+                    + "Little %d CPU %.0f%% | %s", from, to, throughput, arrivalRate, queueWaitP99Nanos / 1e6,
+                meanExecutionNanos / 1e6, littleTarget, cpuLoad * 100, reason);
+        }
+    }
+
+    // ==================== 3. 演示 ====================
+
+    private static volatile long blackhole;
+
+    /**
+     * 恒定到达率的 IO 型任务（sleep 模拟等待 + 少量计算），观察 core 从 1 收敛
+     */
+    public static void demo(int ratePerSecond, int ioMillis, int seconds) throws InterruptedException {
+        System.out.println("【线程池自动调优】");
+        System.out.println(repeat("-", 50));
+        System.out.println("到达率 " + ratePerSecond + "/s，每个任务 IO " + ioMillis + "ms，"
+            + "Little 定律理论所需线程 ≈ " + (ratePerSecond * ioMillis / 1000));
+
+        ManagedThreadPool pool = ThreadPoolDemo.ProductionPool.createPool("Tuned", 1, 256, 10_000);
+        pool.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        PoolSizeTuner tuner = new PoolSizeTuner(pool, 1, 256, 20, 0.9, 500);
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long next = System.nanoTime();
+        long nextTick = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (System.nanoTime() < end) {
+            pool.execute(() -> {
+                try {
+                    Thread.sleep(ioMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                long x = 0;
+                for (int i = 0; i < 1000; i++) {
+                    x += ThreadLocalRandom.current().nextInt();
+                }
+                blackhole += x;
+            });
+            next += intervalNanos;
+            long now = System.nanoTime();
+            if (now >= nextTick) {
+                // 演示里手动 tick，便于把决策与负载打印在一起
+                System.out.println("  " + tuner.tick());
+                nextTick += TimeUnit.MILLISECONDS.toNanos(500);
+            }
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+        }
+        tuner.close();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println(pool.stats());
+        System.out.println();
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[到达率/秒] [每任务 IO 毫秒] [运行秒数]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int io = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        System.out.println("=== 线程池自动调优 ===\n");
+        demo(rate, io, seconds);
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.thread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * 读多写少的容器：StampedLock 乐观读 / 写时复制快照
+ *
+ * ReentrantLockDemo.ReadWriteLockDemo 的读锁每次 lock/unlock 都要 CAS 同一个 state，
+ * 读线程一多，这个缓存行就在核之间来回传递，读读"共享"也会互相拖慢。
+ *
+ * 核心知识点：
+ * 1. OPTIMISTIC 模式：tryOptimisticRead 只读一次版本号，不写任何共享变量；
+ *    读完后 validate，期间有写入就退回到悲观读锁
+ * 2. 乐观读可能读到写了一半的数据，所以 reader 必须无副作用、步数有界，异常（包括 Error）也视为校验失败
+ * 3. COPY_ON_WRITE 模式：读者只读一个 volatile 引用，完全无锁；写者复制一份、修改、再发布，
+ *    写的代价与数据大小成正比，适合极少写入的配置、路由表
+ * 4. main 方法扫一遍读写比例 50/50 ～ 99.99/0.01，对比 ReentrantReadWriteLock
+ *
+ * @author java_learn
+ */
+public class ReadMostlyContainer<T> {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // ==================== 1. 模式与构造 ====================
+
+    public enum Mode {
+        /** 原地修改，StampedLock 乐观读 + 悲观读回退 */
+        OPTIMISTIC,
+        /** 不可变快照，写者复制后替换引用 */
+        COPY_ON_WRITE
+    }
+
+    private final Mode mode;
+    private final UnaryOperator<T> copier;
+
+    // OPTIMISTIC
+    private final StampedLock stampedLock;
+    private final T state;
+
+    // COPY_ON_WRITE
+    private final ReentrantLock writeLock;
+    private volatile T snapshot;
+
+    // 读路径上的计数不能再引入共享写：RELAXED 模式每个线程只写自己的 Cell，没有原子指令
+    private final StripedCounter optimisticReads = new StripedCounter(StripedCounter.Mode.RELAXED, 1);
+    private final StripedCounter fallbackReads = new StripedCounter(StripedCounter.Mode.RELAXED, 1);
+    private final AtomicLong writes = new AtomicLong();
+
+    private ReadMostlyContainer(Mode mode, T initial, UnaryOperator<T> copier) {
+        if (initial == null || copier == null) {
+            throw new NullPointerException();
+        }
+        this.mode = mode;
+        this.copier = copier;
+        if (mode == Mode.OPTIMISTIC) {
+            this.stampedLock = new StampedLock();
+            this.state = initial;
+            this.writeLock = null;
+        } else {
+            this.stampedLock = null;
+            this.state = null;
+            this.writeLock = new ReentrantLock();
+            this.snapshot = initial;
+        }
+    }
+
+    /**
+     * 原地修改 state；copier 只在 snapshot() 时用到
+     */
+    public static <T> ReadMostlyContainer<T> optimistic(T state, UnaryOperator<T> copier) {
+        return new ReadMostlyContainer<>(Mode.OPTIMISTIC, state, copier);
+    }
+
+    /**
+     * 每次写入先 copier 复制一份；initial 交给容器后不要再直接修改
+     */
+    public static <T> ReadMostlyContainer<T> copyOnWrite(T initial, UnaryOperator<T> copier) {
+        return new ReadMostlyContainer<>(Mode.COPY_ON_WRITE, initial, copier);
+    }
+
+    // ==================== 2. 读 ====================
+
+    /**
+     * 在一致的数据上执行 reader。
+     * OPTIMISTIC 模式下 reader 可能先在不一致的数据上跑一遍（结果会被丢弃），
+     * 所以它必须无副作用、不阻塞，并且不能把数据的引用带出去。
+     * 它还必须有界：遍历结构时按已知大小或步数上限停下，因为写了一半的数据里可能出现环，
+     * 不设上限就会一直转下去。越界、空指针、StackOverflowError 之类的异常会被捕获并重新校验。
+     */
+    public <R> R read(Function<? super T, ? extends R> reader) {
+        if (mode == Mode.COPY_ON_WRITE) {
+            optimisticReads.increment();
+            return reader.apply(snapshot);
+        }
+        long stamp = stampedLock.tryOptimisticRead();
+        if (stamp != 0) {
+            R result = null;
+            boolean completed = false;
+            try {
+                result = reader.apply(state);
+                completed = true;
+            } catch (Throwable e) {
+                // 读到了写了一半的数据（可能表现为 StackOverflowError 等 Error），下面 validate 会失败；
+                // 若 validate 成功则是真异常
+                if (stampedLock.validate(stamp)) {
+                    throw e;
+                }
+            }
+            if (completed && stampedLock.validate(stamp)) {
+                optimisticReads.increment();
+                return result;
+            }
+        }
+        fallbackReads.increment();
+        stamp = stampedLock.readLock();
+        try {
+            return reader.apply(state);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 一份可以随意持有的一致快照。COPY_ON_WRITE 模式直接返回当前快照（调用方不得修改），
+     * OPTIMISTIC 模式在读锁下复制
+     */
+    public T snapshot() {
+        if (mode == Mode.COPY_ON_WRITE) {
+            return snapshot;
+        }
+        long stamp = stampedLock.readLock();
+        try {
+            return copier.apply(state);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    // ==================== 3. 写 ====================
+
+    /**
+     * 互斥地修改数据。COPY_ON_WRITE 模式下 mutator 拿到的是副本，返回后整体发布
+     */
+    public void write(Consumer<? super T> mutator) {
+        writes.incrementAndGet();
+        if (mode == Mode.COPY_ON_WRITE) {
+            writeLock.lock();
+            try {
+                T copy = copier.apply(snapshot);
+                mutator.accept(copy);
+                snapshot = copy;
+            } finally {
+                writeLock.unlock();
+            }
+            return;
+        }
+        long stamp = stampedLock.writeLock();
+        try {
+            mutator.accept(state);
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    // ==================== 4. 统计 ====================
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * 无锁完成的读（COPY_ON_WRITE 模式下是全部读）
+     */
+    public long optimisticReads() {
+        return optimisticReads.sum();
+    }
+
+    /**
+     * 校验失败、退回读锁的读
+     */
+    public long fallbackReads() {
+        return fallbackReads.sum();
+    }
+
+    public long writes() {
+        return writes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReadMostlyContainer{mode=" + mode + ", optimisticReads=" + optimisticReads()
+            + ", fallbackReads=" + fallbackReads() + ", writes=" + writes() + '}';
+    }
+
+    // ==================== 5. 读写比例压测 ====================
+
+    /**
+     * 路由表：get / put 一个 HashMap
+     */
+    interface Table {
+        Integer get(int key);
+
+        void put(int key, int value);
+    }
+
+    interface TableFactory {
+        Table create(Map<Integer, Integer> initial);
+    }
+
+    /**
+     * 与 ReadWriteLockDemo 相同的 ReentrantReadWriteLock 用法，去掉了打印和 sleep
+     */
+    private static Table readWriteLock(Map<Integer, Integer> initial) {
+        ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+        Map<Integer, Integer> map = new HashMap<>(initial);
+        return new Table() {
+            @Override
+            public Integer get(int key) {
+                rw.readLock().lock();
+                try {
+                    return map.get(key);
+                } finally {
+                    rw.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void put(int key, int value) {
+                rw.writeLock().lock();
+                try {
+                    map.put(key, value);
+                } finally {
+                    rw.writeLock().unlock();
+                }
+            }
+        };
+    }
+
+    private static Table container(ReadMostlyContainer<Map<Integer, Integer>> container) {
+        return new Table() {
+            @Override
+            public Integer get(int key) {
+                return container.read(m -> m.get(key));
+            }
+
+            @Override
+            public void put(int key, int value) {
+                container.write(m -> m.put(key, value));
+            }
+        };
+    }
+
+    private static final int KEYS = 256;
+
+    // 读到的值累加到这里，防止 JIT 把读操作消除
+    private static volatile long blackhole;
+
+    /**
+     * threads 个线程各做 opsPerThread 次操作，其中约 writeBasisPoints / 10000 为写，返回每秒操作数
+     */
+    private static double run(Table table, int threads, int opsPerThread, int writeBasisPoints)
+        throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long sink = 0;
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int key = random.nextInt(KEYS);
+                        if (random.nextInt(10_000) < writeBasisPoints) {
+                            table.put(key, i);
+                        } else {
+                            Integer v = table.get(key);
+                            sink += v == null ? 0 : v;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    blackhole += sink;
+                    done.countDown();
+                }
+            }, "bench-rw-" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (double) threads * opsPerThread / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private static double best(TableFactory factory, Map<Integer, Integer> initial, int threads, int ops,
+                               int writeBasisPoints) throws InterruptedException {
+        run(factory.create(initial), threads, ops / 4, writeBasisPoints);
+        double best = 0;
+        for (int i = 0; i < 3; i++) {
+            best = Math.max(best, run(factory.create(initial), threads, ops, writeBasisPoints));
+        }
+        return best;
+    }
+
+    public static void benchmark(int threads, int opsPerThread) throws InterruptedException {
+        System.out.println("【读多写少 读写比例扫描（ops/s）】");
+        System.out.println(repeat("-", 50));
+        System.out.println("CPU 核心数: " + Runtime.getRuntime().availableProcessors()
+            + ", 线程数: " + threads + ", 每线程操作数: " + opsPerThread + ", 键数: " + KEYS);
+
+        Map<Integer, Integer> initial = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            initial.put(i, i);
+        }
+
+        // 写入比例，单位万分之一
+        int[] writeBasisPoints = {5_000, 1_000, 100, 10, 1};
+        String[] labels = {"50/50", "90/10", "99/1", "99.9/0.1", "99.99/0.01"};
+
+        System.out.printf("%-12s %16s %16s %16s %12s%n",
+            "读/写", "RWLock", "StampedLock", "CopyOnWrite", "乐观命中率");
+        for (int i = 0; i < writeBasisPoints.length; i++) {
+            int bp = writeBasisPoints[i];
+            double rw = best(ReadMostlyContainer::readWriteLock, initial, threads, opsPerThread, bp);
+
+            ReadMostlyContainer<?>[] last = new ReadMostlyContainer<?>[1];
+            double stamped = best(m -> {
+                ReadMostlyContainer<Map<Integer, Integer>> c = optimistic(new HashMap<>(m), HashMap::new);
+                last[0] = c;
+                return container(c);
+            }, initial, threads, opsPerThread, bp);
+            double hitRate = (double) last[0].optimisticReads()
+                / Math.max(1, last[0].optimisticReads() + last[0].fallbackReads());
+
+            double cow = best(m -> container(copyOnWrite(new HashMap<>(m), HashMap::new)),
+                initial, threads, opsPerThread, bp);
+
+            System.out.printf("%-12s %,16.0f %,16.0f %,16.0f %11.2f%%%n",
+                labels[i], rw, stamped, cow, hitRate * 100);
+        }
+        System.out.println();
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[线程数] [每线程操作数]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0
+            ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        System.out.println("=== StampedLock 乐观读 / 写时复制 ===\n");
+        benchmark(threads, ops);
+    }
+}
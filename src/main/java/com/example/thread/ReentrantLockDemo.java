@@ -187,6 +187,8 @@ public class ReentrantLockDemo {
     
     /**
      * 使用 Condition 实现生产者-消费者模式
+     *
+     * 高吞吐场景下的无锁替代见 RingBufferQueues
      */
     public static class ProducerConsumer {
         private final ReentrantLock lock = new ReentrantLock();
@@ -395,6 +397,8 @@ public class ReentrantLockDemo {
     
     /**
      * ReentrantReadWriteLock 读写锁
+     *
+     * 读多写少场景下的乐观读 / 写时复制版本见 ReadMostlyContainer
      */
     public static class ReadWriteLockDemo {
         private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
@@ -0,0 +1,558 @@
+package com.example.thread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带统计的拒绝策略
+ *
+ * JDK 自带的四种策略在过载时各有问题：CallerRunsPolicy 让提交线程（往往是 IO 线程）执行整个任务，
+ * 卡住的时长没有上限；DiscardOldestPolicy 不分轻重地丢掉队首任务；Abort / Discard 直接失败。
+ * 过载时的延迟悬崖多半就出在这里。
+ *
+ * 核心知识点：
+ * 1. TelemetryPolicy：所有策略的基类，统计拒绝次数、各种处理结果、处理耗时（提交线程被卡住多久），
+ *    并每 sampleEvery 次拒绝采样一次现场（队列长度、线程数、任务类型），保留最近 16 条
+ * 2. BoundedWaitPolicy：在队列上限时等待 maxWait，等不到再交给后备策略
+ * 3. BoundedCallerRunsPolicy：最多允许 maxCallers 个提交线程同时"自己执行"，超出交给后备策略
+ * 4. PriorityShedPolicy：只丢弃队列里最老的低优先级任务来腾位置；新任务本身是低优先级且无可丢时直接丢弃它
+ * 5. OverflowPolicy：溢出到备用线程池，备用池也满了再交给后备策略
+ *
+ * 策略直接操作 executor.getQueue()：若线程池的 core 为 0，直接入队的任务要等到有线程时才会执行。
+ *
+ * @author java_learn
+ */
+public class RejectionPolicies {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // ==================== 1. 统计与采样 ====================
+
+    /**
+     * 一次拒绝的处理结果
+     */
+    public enum Outcome {
+        /** 等待后成功入队 */
+        QUEUED_AFTER_WAIT,
+        /** 丢弃了队列中的低优先级任务后入队 */
+        QUEUED_AFTER_SHED,
+        /** 新任务本身被丢弃 */
+        DROPPED,
+        /** 转到备用线程池 */
+        OVERFLOWED,
+        /** 提交线程自己执行 */
+        CALLER_RAN,
+        /** 交给后备策略且后备策略没有抛异常 */
+        FALLBACK,
+        /** 抛出了 RejectedExecutionException（或其他异常） */
+        ABORTED
+    }
+
+    private static final int SAMPLE_SLOTS = 16;
+
+    /**
+     * 一次被采样的拒绝现场
+     */
+    public static final class Sample {
+        public final long timeMillis;
+        public final Outcome outcome;
+        public final int queueSize;
+        public final int poolSize;
+        public final String taskType;
+        public final long handlingNanos;
+
+        Sample(long timeMillis, Outcome outcome, int queueSize, int poolSize, String taskType, long handlingNanos) {
+            this.timeMillis = timeMillis;
+            this.outcome = outcome;
+            this.queueSize = queueSize;
+            this.poolSize = poolSize;
+            this.taskType = taskType;
+            this.handlingNanos = handlingNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%tT.%<tL %s queue=%d pool=%d task=%s %dus", timeMillis, outcome, queueSize,
+                poolSize, taskType, handlingNanos / 1_000);
+        }
+    }
+
+    /**
+     * 拒绝策略基类：子类实现 handle，返回处理结果；需要交给后备策略时调用 fallback
+     */
+    public abstract static class TelemetryPolicy implements RejectedExecutionHandler {
+        private final String name;
+        private final int sampleEvery;
+        private final RejectedExecutionHandler fallback;
+        private final AtomicLong rejected = new AtomicLong();
+        private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+        private final InstrumentedLocks.LogHistogram handlingNanos = new InstrumentedLocks.LogHistogram();
+        private final AtomicReferenceArray<Sample> samples = new AtomicReferenceArray<>(SAMPLE_SLOTS);
+        private final AtomicLong sampleCursor = new AtomicLong();
+
+        protected TelemetryPolicy(String name, int sampleEvery, RejectedExecutionHandler fallback) {
+            if (sampleEvery <= 0) {
+                throw new IllegalArgumentException("sampleEvery 必须为正数: " + sampleEvery);
+            }
+            if (fallback == null) {
+                throw new NullPointerException("fallback");
+            }
+            this.name = name;
+            this.sampleEvery = sampleEvery;
+            this.fallback = fallback;
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] = new LongAdder();
+            }
+        }
+
+        @Override
+        public final void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            long seq = rejected.incrementAndGet();
+            long begin = System.nanoTime();
+            Outcome outcome = Outcome.ABORTED;
+            try {
+                outcome = handle(r, executor);
+            } finally {
+                long elapsed = System.nanoTime() - begin;
+                handlingNanos.record(elapsed);
+                outcomes[outcome.ordinal()].increment();
+                if (seq % sampleEvery == 0) {
+                    sample(r, executor, outcome, elapsed);
+                }
+            }
+        }
+
+        protected abstract Outcome handle(Runnable r, ThreadPoolExecutor executor);
+
+        /**
+         * 交给后备策略；后备策略抛异常时结果记为 ABORTED
+         */
+        protected final Outcome fallback(Runnable r, ThreadPoolExecutor executor) {
+            fallback.rejectedExecution(r, executor);
+            return Outcome.FALLBACK;
+        }
+
+        private void sample(Runnable r, ThreadPoolExecutor executor, Outcome outcome, long elapsed) {
+            // getPoolSize() 要拿线程池的 mainLock，只在采样时调用
+            Sample s = new Sample(System.currentTimeMillis(), outcome, executor.getQueue().size(),
+                executor.getPoolSize(), taskType(r), elapsed);
+            samples.set((int) (sampleCursor.getAndIncrement() % SAMPLE_SLOTS), s);
+        }
+
+        private static String taskType(Runnable r) {
+            String type = r.getClass().getSimpleName();
+            // lambda 的类名形如 Outer$$Lambda$12/0x...，只保留前半部分
+            int lambda = type.indexOf("$$Lambda");
+            return lambda < 0 ? type : type.substring(0, lambda) + "$$Lambda";
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long rejected() {
+            return rejected.get();
+        }
+
+        public long count(Outcome outcome) {
+            return outcomes[outcome.ordinal()].sum();
+        }
+
+        public Telemetry telemetry() {
+            return new Telemetry(this);
+        }
+    }
+
+    /**
+     * 拒绝策略某一时刻的统计快照
+     */
+    public static final class Telemetry {
+        public final String name;
+        public final long rejected;
+        public final Map<Outcome, Long> outcomes;
+        /** 处理一次拒绝花的时间，即提交线程被额外卡住的时长 */
+        public final InstrumentedLocks.Summary handlingNanos;
+        /** 最近的采样，按时间先后排列 */
+        public final List<Sample> recentSamples;
+
+        Telemetry(TelemetryPolicy policy) {
+            this.name = policy.name;
+            this.rejected = policy.rejected.get();
+            Map<Outcome, Long> counts = new EnumMap<>(Outcome.class);
+            for (Outcome o : Outcome.values()) {
+                long c = policy.count(o);
+                if (c > 0) {
+                    counts.put(o, c);
+                }
+            }
+            this.outcomes = Collections.unmodifiableMap(counts);
+            this.handlingNanos = policy.handlingNanos.summary();
+            long cursor = policy.sampleCursor.get();
+            List<Sample> list = new ArrayList<>(SAMPLE_SLOTS);
+            for (long i = Math.max(0, cursor - SAMPLE_SLOTS); i < cursor; i++) {
+                Sample s = policy.samples.get((int) (i % SAMPLE_SLOTS));
+                if (s != null) {
+                    list.add(s);
+                }
+            }
+            this.recentSamples = Collections.unmodifiableList(list);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(name).append(": 拒绝=").append(rejected).append(' ').append(outcomes).append('\n')
+                .append("  处理耗时(ns): ").append(handlingNanos);
+            // 只打印最近 3 条
+            for (Sample s : recentSamples.subList(Math.max(0, recentSamples.size() - 3), recentSamples.size())) {
+                sb.append("\n  采样: ").append(s);
+            }
+            return sb.toString();
+        }
+    }
+
+    // ==================== 2. 有上限的等待 ====================
+
+    /**
+     * 队列满时等待 maxWait 看是否有空位，等不到（或线程池已关闭）交给后备策略。
+     * 提交线程最多被额外卡住 maxWait，而不是一个任务的执行时长
+     */
+    public static class BoundedWaitPolicy extends TelemetryPolicy {
+        private final long maxWaitNanos;
+
+        public BoundedWaitPolicy(String name, long maxWait, TimeUnit unit) {
+            this(name, maxWait, unit, 1, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        public BoundedWaitPolicy(String name, long maxWait, TimeUnit unit, int sampleEvery,
+                                 RejectedExecutionHandler fallback) {
+            super(name, sampleEvery, fallback);
+            this.maxWaitNanos = unit.toNanos(maxWait);
+        }
+
+        @Override
+        protected Outcome handle(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return fallback(r, executor);
+            }
+            BlockingQueue<Runnable> queue = executor.getQueue();
+            try {
+                if (queue.offer(r, maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                    // 等待期间线程池被关闭：能从队列取回就按拒绝处理，否则已有线程拿走执行
+                    if (executor.isShutdown() && queue.remove(r)) {
+                        return fallback(r, executor);
+                    }
+                    return Outcome.QUEUED_AFTER_WAIT;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("等待队列空位时被中断", e);
+            }
+            return fallback(r, executor);
+        }
+    }
+
+    // ==================== 3. 有上限的调用者执行 ====================
+
+    /**
+     * 与 CallerRunsPolicy 相同的反压效果，但同一时刻最多 maxCallers 个提交线程在自己执行任务，
+     * 其余交给后备策略。线程池已关闭时任务交给后备策略
+     */
+    public static class BoundedCallerRunsPolicy extends TelemetryPolicy {
+        private final Semaphore callers;
+
+        public BoundedCallerRunsPolicy(String name, int maxCallers) {
+            this(name, maxCallers, 1, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        public BoundedCallerRunsPolicy(String name, int maxCallers, int sampleEvery,
+                                       RejectedExecutionHandler fallback) {
+            super(name, sampleEvery, fallback);
+            if (maxCallers <= 0) {
+                throw new IllegalArgumentException("maxCallers 必须为正数: " + maxCallers);
+            }
+            this.callers = new Semaphore(maxCallers);
+        }
+
+        @Override
+        protected Outcome handle(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown() || !callers.tryAcquire()) {
+                return fallback(r, executor);
+            }
+            try {
+                r.run();
+            } finally {
+                callers.release();
+            }
+            return Outcome.CALLER_RAN;
+        }
+    }
+
+    // ==================== 4. 按优先级丢弃 ====================
+
+    public static final int LOW = 0;
+    public static final int NORMAL = 5;
+    public static final int HIGH = 10;
+
+    /**
+     * 带优先级的任务；没有实现此接口的任务按 NORMAL 处理
+     */
+    public interface Prioritized {
+        int priority();
+    }
+
+    /**
+     * 带优先级的 FutureTask。要用 execute() 提交：submit() 会再包一层，优先级就丢了。
+     * 被丢弃时任务会被取消，get() 抛 CancellationException，调用方不会一直等下去
+     */
+    public static final class PrioritizedTask<T> extends FutureTask<T> implements Prioritized {
+        private final int priority;
+
+        PrioritizedTask(int priority, Callable<T> callable) {
+            super(callable);
+            this.priority = priority;
+        }
+
+        PrioritizedTask(int priority, Runnable runnable) {
+            super(runnable, null);
+            this.priority = priority;
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+    }
+
+    public static <T> PrioritizedTask<T> withPriority(int priority, Callable<T> task) {
+        return new PrioritizedTask<>(priority, task);
+    }
+
+    public static PrioritizedTask<Void> withPriority(int priority, Runnable task) {
+        return new PrioritizedTask<>(priority, task);
+    }
+
+    static int priorityOf(Runnable r) {
+        return r instanceof Prioritized ? ((Prioritized) r).priority() : NORMAL;
+    }
+
+    /**
+     * 队列满时从队首（最老）找第一个优先级低于 lowBelow 的任务丢掉，把新任务放进去。
+     * 找不到可丢的：新任务本身是低优先级就丢弃它，否则交给后备策略。
+     * 队列不支持遍历（如 WorkStealingExecutor 的全局队列）时视为找不到
+     */
+    public static class PriorityShedPolicy extends TelemetryPolicy {
+        private static final int MAX_ATTEMPTS = 3;
+
+        private final int lowBelow;
+        private final LongAdder shed = new LongAdder();
+
+        public PriorityShedPolicy(String name, int lowBelow) {
+            this(name, lowBelow, 1, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        public PriorityShedPolicy(String name, int lowBelow, int sampleEvery, RejectedExecutionHandler fallback) {
+            super(name, sampleEvery, fallback);
+            this.lowBelow = lowBelow;
+        }
+
+        @Override
+        protected Outcome handle(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return fallback(r, executor);
+            }
+            BlockingQueue<Runnable> queue = executor.getQueue();
+            // 丢掉一个之后空位可能被别的提交线程抢走，最多重试几次
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                Runnable victim = oldestLowPriority(queue);
+                if (victim == null) {
+                    break;
+                }
+                if (queue.remove(victim)) {
+                    discard(victim);
+                    shed.increment();
+                    if (queue.offer(r)) {
+                        return Outcome.QUEUED_AFTER_SHED;
+                    }
+                }
+            }
+            if (priorityOf(r) < lowBelow) {
+                discard(r);
+                return Outcome.DROPPED;
+            }
+            return fallback(r, executor);
+        }
+
+        private Runnable oldestLowPriority(BlockingQueue<Runnable> queue) {
+            try {
+                for (Runnable task : queue) {
+                    if (priorityOf(task) < lowBelow) {
+                        return task;
+                    }
+                }
+            } catch (UnsupportedOperationException e) {
+                // 队列不支持遍历
+            }
+            return null;
+        }
+
+        private static void discard(Runnable task) {
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+
+        /**
+         * 为腾位置而丢弃的队列中任务数
+         */
+        public long shed() {
+            return shed.sum();
+        }
+    }
+
+    // ==================== 5. 溢出到备用线程池 ====================
+
+    /**
+     * 把被拒绝的任务交给备用线程池；备用池也拒绝（或主线程池已关闭）时交给后备策略。
+     * 备用池应使用 AbortPolicy，否则它自己的拒绝策略会先生效
+     */
+    public static class OverflowPolicy extends TelemetryPolicy {
+        private final ExecutorService secondary;
+
+        public OverflowPolicy(String name, ExecutorService secondary) {
+            this(name, secondary, 1, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        public OverflowPolicy(String name, ExecutorService secondary, int sampleEvery,
+                              RejectedExecutionHandler fallback) {
+            super(name, sampleEvery, fallback);
+            if (secondary == null) {
+                throw new NullPointerException("secondary");
+            }
+            this.secondary = secondary;
+        }
+
+        @Override
+        protected Outcome handle(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return fallback(r, executor);
+            }
+            try {
+                secondary.execute(r);
+                return Outcome.OVERFLOWED;
+            } catch (RejectedExecutionException e) {
+                return fallback(r, executor);
+            }
+        }
+    }
+
+    // ==================== 6. 演示 ====================
+
+    /**
+     * 单个提交线程以固定速率向 2 线程、队列 10 的线程池提交任务，任务平均 5ms、每 20 个有一个 50ms，
+     * 明显超出处理能力。比较提交线程在 execute() 上花的时间以及任务的去向
+     */
+    public static void demo(int tasks) throws InterruptedException {
+        System.out.println("【带统计的拒绝策略】");
+        System.out.println(repeat("-", 50));
+
+        runOverload("CallerRunsPolicy", new ThreadPoolExecutor.CallerRunsPolicy(), tasks, null);
+
+        BoundedWaitPolicy wait = new BoundedWaitPolicy("wait-10ms", 10, TimeUnit.MILLISECONDS, 20,
+            new ThreadPoolExecutor.DiscardPolicy());
+        runOverload("BoundedWait(10ms) -> Discard", wait, tasks, null);
+        System.out.println(wait.telemetry());
+
+        PriorityShedPolicy shed = new PriorityShedPolicy("shed-low", NORMAL, 20,
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        runOverload("PriorityShed(低优先级) -> CallerRuns", shed, tasks, shed);
+        System.out.println(shed.telemetry());
+        System.out.println("  为腾位置丢弃的队列任务: " + shed.shed());
+
+        ManagedThreadPool secondary = ThreadPoolDemo.ProductionPool.createPool("Overflow", 2, 2, 50,
+            new ThreadPoolExecutor.AbortPolicy());
+        OverflowPolicy overflow = new OverflowPolicy("overflow", secondary, 20,
+            new ThreadPoolExecutor.DiscardPolicy());
+        runOverload("Overflow(备用池 2/2/50) -> Discard", overflow, tasks, null);
+        System.out.println(overflow.telemetry());
+        secondary.shutdown();
+        secondary.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println("  备用池: 完成=" + secondary.getCompletedTaskCount());
+        System.out.println();
+    }
+
+    private static void runOverload(String label, RejectedExecutionHandler policy, int tasks,
+                                    PriorityShedPolicy prioritized) throws InterruptedException {
+        ManagedThreadPool pool = ThreadPoolDemo.ProductionPool.createPool("Overload", 2, 2, 10, policy);
+        InstrumentedLocks.LogHistogram submitNanos = new InstrumentedLocks.LogHistogram();
+        LongAdder done = new LongAdder();
+        LongAdder highDone = new LongAdder();
+        int highSubmitted = 0;
+        for (int i = 0; i < tasks; i++) {
+            long sleep = i % 20 == 0 ? 50 : 5;
+            boolean high = i % 5 == 0;
+            Runnable body = () -> {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.increment();
+                if (high) {
+                    highDone.increment();
+                }
+            };
+            Runnable task = body;
+            if (prioritized != null) {
+                task = withPriority(high ? HIGH : LOW, body);
+            }
+            if (high) {
+                highSubmitted++;
+            }
+            long begin = System.nanoTime();
+            pool.execute(task);
+            submitNanos.record(System.nanoTime() - begin);
+            // 提交间隔 1ms，约为处理能力的 2.5 倍
+            Thread.sleep(1);
+        }
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+        InstrumentedLocks.Summary s = submitNanos.summary();
+        System.out.printf("%n%s%n  execute() 耗时(us): p50=%d p99=%d max=%d，完成 %d/%d，高优先级完成 %d/%d%n",
+            label, s.percentile(50) / 1_000, s.percentile(99) / 1_000, s.max / 1_000,
+            done.sum(), tasks, highDone.sum(), highSubmitted);
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[任务数]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        System.out.println("=== 带统计的拒绝策略 ===\n");
+        demo(tasks);
+    }
+}
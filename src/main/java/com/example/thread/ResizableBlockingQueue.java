@@ -0,0 +1,331 @@
+package com.example.thread;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 容量可以在运行时修改的有界阻塞队列
+ *
+ * ArrayBlockingQueue 的容量在构造时固定，线程池想调大队列只能重建。
+ * 这里用一把锁 + notEmpty / notFull 两个条件（与 ReentrantLockDemo.ProducerConsumer 同一结构）
+ * 保护一个 ArrayDeque，容量只是一个可修改的上限。
+ *
+ * 核心知识点：
+ * 1. 调大容量：唤醒所有等待 notFull 的生产者
+ * 2. 调小容量：已入队的元素保留，新的 offer 会失败，直到队列排空到新容量以下
+ * 3. 每个元素记录入队时间，被 poll/take 取走时把排队时长记入 waitNanos 直方图，
+ *    线程池据此得到任务的排队等待时间（直接交给新线程的任务不经过队列，不计入）
+ *
+ * @author java_learn
+ */
+public class ResizableBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final class Node<E> {
+        final E item;
+        final long enqueuedAt;
+
+        Node(E item, long enqueuedAt) {
+            this.item = item;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Node<E>> items = new ArrayDeque<>();
+    private volatile int capacity;
+
+    private final InstrumentedLocks.LogHistogram waitNanos = new InstrumentedLocks.LogHistogram();
+
+    public ResizableBlockingQueue(int capacity) {
+        checkCapacity(capacity);
+        this.capacity = capacity;
+    }
+
+    private static void checkCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity 必须为正数: " + capacity);
+        }
+    }
+
+    // ==================== 1. 容量控制 ====================
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 修改容量。调小时不会丢弃已入队的元素
+     */
+    public void setCapacity(int newCapacity) {
+        checkCapacity(newCapacity);
+        lock.lock();
+        try {
+            int old = capacity;
+            capacity = newCapacity;
+            if (newCapacity > old) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 元素出队前在队列里停留的时长
+     */
+    public InstrumentedLocks.Summary waitNanos() {
+        return waitNanos.summary();
+    }
+
+    // ==================== 2. 入队 ====================
+
+    private void enqueue(E e) {
+        items.addLast(new Node<>(e, System.nanoTime()));
+        notEmpty.signal();
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            if (items.size() >= capacity) {
+                return false;
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ==================== 3. 出队 ====================
+
+    private E dequeue() {
+        Node<E> node = items.pollFirst();
+        waitNanos.record(System.nanoTime() - node.enqueuedAt);
+        if (items.size() < capacity) {
+            notFull.signal();
+        }
+        return node.item;
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return items.isEmpty() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            Node<E> node = items.peekFirst();
+            return node == null ? null : node.item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按引用移除（ThreadPoolExecutor.remove / purge 会用到），不计入排队时长
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (Iterator<Node<E>> it = items.iterator(); it.hasNext(); ) {
+                if (o.equals(it.next().item)) {
+                    it.remove();
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 取出的元素不会被执行（shutdownNow），不计入排队时长
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && !items.isEmpty()) {
+                c.add(items.pollFirst().item);
+                n++;
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ==================== 4. 查询与遍历 ====================
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return Math.max(0, capacity - items.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 弱一致迭代器：遍历调用时刻的副本，remove() 回到队列按引用删除
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> copy;
+        lock.lock();
+        try {
+            copy = new ArrayList<>(items.size());
+            for (Node<E> node : items) {
+                copy.add(node.item);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Iterator<E> it = copy.iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                if (!it.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                ResizableBlockingQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,804 @@
+package com.example.thread;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 无锁有界环形队列（Disruptor / Vyukov 风格）
+ *
+ * ReentrantLockDemo.ProducerConsumer 用一把 ReentrantLock + 两个 Condition 保护 LinkedList，
+ * 每个元素都要分配一个链表节点，生产者和消费者争抢同一把锁。
+ * 这里用预分配的数组环 + 序号实现同一语义，入队出队都不加锁。
+ *
+ * 核心知识点：
+ * 1. 容量取 2 的幂，下标 = 序号 & mask，不需要取模
+ * 2. head / tail 计数器用类继承做缓存行填充，避免伪共享
+ * 3. SPSC：单生产单消费，只需 release/acquire 发布下标，无 CAS
+ * 4. MPSC / MPMC：每个槽位带序号（Vyukov），生产者 CAS tail，MPMC 的消费者 CAS head
+ * 5. 可插拔等待策略：自旋 / 让出 / 停车 / 阻塞，在延迟与 CPU 占用之间取舍
+ *
+ * main 方法是手写的吞吐对比（预热 + 多轮取最好），对比 ProducerConsumer 和 ArrayBlockingQueue。
+ *
+ * @author java_learn
+ */
+public class RingBufferQueues {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // ==================== 1. 队列接口 ====================
+
+    /**
+     * 有界队列：offer/poll 不阻塞，put/take 按等待策略等待
+     */
+    public interface BoundedQueue<E> {
+
+        /** 队列满时返回 false */
+        boolean offer(E e);
+
+        /** 队列空时返回 null */
+        E poll();
+
+        void put(E e) throws InterruptedException;
+
+        E take() throws InterruptedException;
+
+        int capacity();
+
+        /** 近似值，并发修改时只作参考 */
+        int size();
+    }
+
+    // ==================== 2. 等待策略 ====================
+
+    /**
+     * 队列满（put）或空（take）时如何等待
+     */
+    public interface WaitStrategy {
+
+        /** 等到 ready 为 true；ready 会被反复检查 */
+        void await(BooleanSupplier ready) throws InterruptedException;
+
+        /** 队列状态变化后调用（入队或出队之后） */
+        void signal();
+    }
+
+    /**
+     * 纯自旋：延迟最低，但等待期间占满一个核。只适合线程数不超过核数的场景
+     */
+    public static final class SpinWait implements WaitStrategy {
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            while (!ready.getAsBoolean()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    /**
+     * 先短暂自旋，再 Thread.yield() 让出时间片
+     */
+    public static final class YieldWait implements WaitStrategy {
+        private static final int SPINS = 100;
+
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            int tries = 0;
+            while (!ready.getAsBoolean()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (++tries < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    /**
+     * 自旋、让出之后 parkNanos 定时停车，不需要唤醒方配合。空闲时几乎不占 CPU，延迟在几十微秒级
+     */
+    public static final class ParkWait implements WaitStrategy {
+        private static final int SPINS = 100;
+        private static final int YIELDS = 100;
+        private static final long PARK_NANOS = 50_000;
+
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            int tries = 0;
+            while (!ready.getAsBoolean()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                tries++;
+                if (tries < SPINS) {
+                    Thread.onSpinWait();
+                } else if (tries < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    /**
+     * 锁 + Condition 阻塞等待。只有确实有线程在等时，signal 才去拿锁，所以无人等待时的快路径仍然无锁。
+     *
+     * 不丢唤醒的原因：等待方先写 waiters 再检查队列，通知方先改队列再读 waiters，
+     * 只要两边的"写后读"都不被重排，至少有一方能看到对方的写入。
+     * 等待方的 incrementAndGet 本身是全屏障；通知方改队列用的是 release 写，
+     * 而 release 不阻止后面的读被提前，所以 signal 开头补一个 fullFence（StoreLoad）。
+     */
+    public static final class BlockingWait implements WaitStrategy {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            if (ready.getAsBoolean()) {
+                return;
+            }
+            lock.lock();
+            try {
+                waiters.incrementAndGet();
+                try {
+                    while (!ready.getAsBoolean()) {
+                        changed.await();
+                    }
+                } finally {
+                    waiters.decrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signal() {
+            // 队列下标/序号的 release 写必须先于 waiters 的读，否则可能两边都看不到对方而丢唤醒
+            VarHandle.fullFence();
+            if (waiters.get() > 0) {
+                lock.lock();
+                try {
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // ==================== 3. 填充的环形数组基类 ====================
+
+    /*
+     * 类继承填充：JVM 先排父类字段再排子类字段，
+     * 所以 tail 和 head 之间至少隔着 7 个 long（56 字节）+ 对象头，落在不同缓存行。
+     */
+
+    abstract static class PadBeforeTail {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class TailField extends PadBeforeTail {
+        volatile long tail;
+    }
+
+    abstract static class PadBeforeHead extends TailField {
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    abstract static class HeadField extends PadBeforeHead {
+        volatile long head;
+    }
+
+    abstract static class PadAfterHead extends HeadField {
+        long p20, p21, p22, p23, p24, p25, p26, p27;
+    }
+
+    /**
+     * 环形数组公共部分：容量、mask、带首尾填充的元素数组，以及基于等待策略的 put/take
+     */
+    abstract static class AbstractRing<E> extends PadAfterHead implements BoundedQueue<E> {
+
+        // 数组两端各空出 16 个槽位，避免与相邻对象共享缓存行
+        static final int ARRAY_PAD = 16;
+
+        static final VarHandle TAIL;
+        static final VarHandle HEAD;
+        static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Object[].class);
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                TAIL = lookup.findVarHandle(TailField.class, "tail", long.class);
+                HEAD = lookup.findVarHandle(HeadField.class, "head", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final int capacity;
+        final int mask;
+        final Object[] buffer;
+        final WaitStrategy waitStrategy;
+
+        AbstractRing(int requestedCapacity, WaitStrategy waitStrategy) {
+            if (requestedCapacity < 2 || requestedCapacity > (1 << 30)) {
+                throw new IllegalArgumentException("capacity 需在 [2, 2^30] 之间: " + requestedCapacity);
+            }
+            this.capacity = 1 << (32 - Integer.numberOfLeadingZeros(requestedCapacity - 1));
+            this.mask = capacity - 1;
+            this.buffer = new Object[capacity + 2 * ARRAY_PAD];
+            this.waitStrategy = waitStrategy;
+        }
+
+        final int index(long sequence) {
+            return ARRAY_PAD + (int) (sequence & mask);
+        }
+
+        @Override
+        public void put(E e) throws InterruptedException {
+            while (!offer(e)) {
+                waitStrategy.await(this::hasSpace);
+            }
+        }
+
+        @Override
+        public E take() throws InterruptedException {
+            E e;
+            while ((e = poll()) == null) {
+                waitStrategy.await(this::hasElement);
+            }
+            return e;
+        }
+
+        boolean hasSpace() {
+            return (long) TAIL.getAcquire(this) - (long) HEAD.getAcquire(this) < capacity;
+        }
+
+        boolean hasElement() {
+            return (long) TAIL.getAcquire(this) != (long) HEAD.getAcquire(this);
+        }
+
+        @Override
+        public int capacity() {
+            return capacity;
+        }
+
+        @Override
+        public int size() {
+            long h = (long) HEAD.getAcquire(this);
+            long t = (long) TAIL.getAcquire(this);
+            return (int) Math.max(0, Math.min(capacity, t - h));
+        }
+    }
+
+    // ==================== 4. SPSC：单生产者单消费者 ====================
+
+    /*
+     * 生产者私有的 cachedHead 和消费者私有的 cachedTail 也按 tail/head 的方式用继承填充隔开，
+     * 否则一方刷新缓存值时会让另一方的缓存行失效。
+     */
+
+    abstract static class SpscPadBeforeCachedHead<E> extends AbstractRing<E> {
+        long p30, p31, p32, p33, p34, p35, p36, p37;
+
+        SpscPadBeforeCachedHead(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+    }
+
+    abstract static class SpscCachedHeadField<E> extends SpscPadBeforeCachedHead<E> {
+        // 生产者私有
+        long cachedHead;
+
+        SpscCachedHeadField(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+    }
+
+    abstract static class SpscPadBeforeCachedTail<E> extends SpscCachedHeadField<E> {
+        long p40, p41, p42, p43, p44, p45, p46, p47;
+
+        SpscPadBeforeCachedTail(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+    }
+
+    abstract static class SpscCachedTailField<E> extends SpscPadBeforeCachedTail<E> {
+        // 消费者私有
+        long cachedTail;
+
+        SpscCachedTailField(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+    }
+
+    abstract static class SpscPadAfterCachedTail<E> extends SpscCachedTailField<E> {
+        long p50, p51, p52, p53, p54, p55, p56, p57;
+
+        SpscPadAfterCachedTail(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+    }
+
+    /**
+     * 单生产单消费：tail 只被生产者写，head 只被消费者写，用 release 写 / acquire 读即可，无 CAS。
+     * 各自缓存对方的下标，只有在看起来满/空时才重新读取，减少缓存行来回传递。
+     */
+    public static final class SpscRingQueue<E> extends SpscPadAfterCachedTail<E> {
+
+        public SpscRingQueue(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+
+        @Override
+        public boolean offer(E e) {
+            if (e == null) {
+                throw new NullPointerException();
+            }
+            long t = (long) TAIL.getOpaque(this);
+            if (t - cachedHead >= capacity) {
+                cachedHead = (long) HEAD.getAcquire(this);
+                if (t - cachedHead >= capacity) {
+                    return false;
+                }
+            }
+            SLOT.set(buffer, index(t), e);
+            // release：元素写入先于下标发布
+            TAIL.setRelease(this, t + 1);
+            waitStrategy.signal();
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E poll() {
+            long h = (long) HEAD.getOpaque(this);
+            if (h >= cachedTail) {
+                cachedTail = (long) TAIL.getAcquire(this);
+                if (h >= cachedTail) {
+                    return null;
+                }
+            }
+            int i = index(h);
+            E e = (E) SLOT.get(buffer, i);
+            SLOT.set(buffer, i, null);
+            HEAD.setRelease(this, h + 1);
+            waitStrategy.signal();
+            return e;
+        }
+    }
+
+    // ==================== 5. Vyukov 序号槽位：MPSC / MPMC ====================
+
+    /**
+     * 每个槽位带一个序号：seq == pos 表示可写，seq == pos + 1 表示可读。
+     * 生产者 CAS 抢 tail 后写元素，再以 release 发布 seq；消费者看到 seq 后读元素，
+     * 把 seq 推进到 pos + capacity，表示下一圈可写。
+     *
+     * 还支持弱一致的 peek / snapshot / remove：remove 把槽位里的元素 CAS 成墓碑 REMOVED，
+     * 消费者用 getAndSet 取走槽位，与 remove 之间只有一方能拿到元素；遇到墓碑就跳过。
+     * 墓碑出队前仍占位，所以 size() 会把它算进去。
+     */
+    abstract static class SequencedRing<E> extends AbstractRing<E> {
+
+        static final VarHandle SEQ = MethodHandles.arrayElementVarHandle(long[].class);
+
+        /** 被 remove 掉的槽位 */
+        static final Object REMOVED = new Object();
+
+        final long[] sequences;
+
+        SequencedRing(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+            this.sequences = new long[this.capacity + 2 * ARRAY_PAD];
+            for (long i = 0; i < this.capacity; i++) {
+                sequences[index(i)] = i;
+            }
+        }
+
+        @Override
+        public boolean offer(E e) {
+            if (e == null) {
+                throw new NullPointerException();
+            }
+            long pos = (long) TAIL.getOpaque(this);
+            while (true) {
+                int i = index(pos);
+                long seq = (long) SEQ.getAcquire(sequences, i);
+                long diff = seq - pos;
+                if (diff == 0) {
+                    if (TAIL.weakCompareAndSet(this, pos, pos + 1)) {
+                        SLOT.set(buffer, i, e);
+                        SEQ.setRelease(sequences, i, pos + 1);
+                        waitStrategy.signal();
+                        return true;
+                    }
+                    pos = (long) TAIL.getOpaque(this);
+                } else if (diff < 0) {
+                    // 这一圈的槽位还没被消费：满了
+                    return false;
+                } else {
+                    // 别的生产者已经抢走 pos
+                    pos = (long) TAIL.getOpaque(this);
+                }
+            }
+        }
+
+        /**
+         * 取走 pos 处的元素并把槽位交给下一圈；返回 REMOVED 时调用方应继续出队
+         */
+        @SuppressWarnings("unchecked")
+        final E consume(long pos, int i) {
+            // getAndSet 而不是读后写：与 remove 的 CAS 竞争时只有一方能拿到元素
+            E e = (E) SLOT.getAndSet(buffer, i, null);
+            SEQ.setRelease(sequences, i, pos + capacity);
+            waitStrategy.signal();
+            return e;
+        }
+
+        /**
+         * 从 head 往后第一个未被移除的元素，队列空时返回 null。并发出队时结果可能已经过时
+         */
+        @SuppressWarnings("unchecked")
+        public E peek() {
+            long pos = (long) HEAD.getAcquire(this);
+            while (true) {
+                int i = index(pos);
+                if ((long) SEQ.getAcquire(sequences, i) != pos + 1) {
+                    long head = (long) HEAD.getAcquire(this);
+                    if (head - pos <= 0) {
+                        return null;
+                    }
+                    // pos 已被消费者越过，从新的 head 重新找
+                    pos = head;
+                    continue;
+                }
+                Object e = SLOT.getAcquire(buffer, i);
+                if (e != null && e != REMOVED) {
+                    return (E) e;
+                }
+                pos++;
+            }
+        }
+
+        /**
+         * 按出队顺序复制当前元素，最多看一圈。弱一致：不反映复制过程中的并发修改
+         */
+        @SuppressWarnings("unchecked")
+        public List<E> snapshot() {
+            List<E> out = new ArrayList<>();
+            long pos = (long) HEAD.getAcquire(this);
+            for (long end = pos + capacity; pos < end; pos++) {
+                int i = index(pos);
+                if ((long) SEQ.getAcquire(sequences, i) != pos + 1) {
+                    break;
+                }
+                Object e = SLOT.getAcquire(buffer, i);
+                if (e != null && e != REMOVED) {
+                    out.add((E) e);
+                }
+            }
+            return out;
+        }
+
+        /**
+         * 按引用（==）移除一个还没被取走的元素，留下墓碑由消费者跳过
+         *
+         * @return true 表示该元素不会再被任何消费者取到
+         */
+        public boolean remove(Object o) {
+            if (o == null) {
+                return false;
+            }
+            long pos = (long) HEAD.getAcquire(this);
+            for (long end = pos + capacity; pos < end; pos++) {
+                int i = index(pos);
+                if ((long) SEQ.getAcquire(sequences, i) != pos + 1) {
+                    long head = (long) HEAD.getAcquire(this);
+                    if (head - pos <= 0) {
+                        return false;
+                    }
+                    pos = head - 1;
+                    end = head + capacity;
+                    continue;
+                }
+                if (SLOT.compareAndSet(buffer, i, o, REMOVED)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean hasElement() {
+            long pos = (long) HEAD.getAcquire(this);
+            return (long) SEQ.getAcquire(sequences, index(pos)) == pos + 1;
+        }
+    }
+
+    /**
+     * 多生产者单消费者：消费端只有一个线程，head 直接 release 写入，不需要 CAS
+     */
+    public static final class MpscRingQueue<E> extends SequencedRing<E> {
+
+        public MpscRingQueue(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+
+        @Override
+        public E poll() {
+            while (true) {
+                long pos = (long) HEAD.getOpaque(this);
+                int i = index(pos);
+                if ((long) SEQ.getAcquire(sequences, i) != pos + 1) {
+                    return null;
+                }
+                HEAD.setRelease(this, pos + 1);
+                E e = consume(pos, i);
+                if (e != REMOVED) {
+                    return e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 多生产者多消费者：消费者之间 CAS 抢 head
+     */
+    public static final class MpmcRingQueue<E> extends SequencedRing<E> {
+
+        public MpmcRingQueue(int capacity, WaitStrategy waitStrategy) {
+            super(capacity, waitStrategy);
+        }
+
+        @Override
+        public E poll() {
+            long pos = (long) HEAD.getOpaque(this);
+            while (true) {
+                int i = index(pos);
+                long seq = (long) SEQ.getAcquire(sequences, i);
+                long diff = seq - (pos + 1);
+                if (diff == 0) {
+                    if (HEAD.weakCompareAndSet(this, pos, pos + 1)) {
+                        E e = consume(pos, i);
+                        if (e != REMOVED) {
+                            return e;
+                        }
+                    }
+                    pos = (long) HEAD.getOpaque(this);
+                } else if (diff < 0) {
+                    return null;
+                } else {
+                    pos = (long) HEAD.getOpaque(this);
+                }
+            }
+        }
+    }
+
+    // ==================== 6. 吞吐对比 ====================
+
+    /**
+     * 把不同实现包装成统一的 put/take，便于在同一个压测框架里跑
+     */
+    interface Channel {
+        void put(Integer e) throws InterruptedException;
+
+        Integer take() throws InterruptedException;
+    }
+
+    private static final Integer ITEM = 42;
+
+    /**
+     * producers 个线程各放 perProducer 个元素，consumers 个线程取完为止，返回每秒元素数
+     */
+    private static double run(Channel channel, int producers, int consumers, int perProducer)
+        throws InterruptedException {
+        long total = (long) producers * perProducer;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(producers + consumers);
+
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        channel.put(ITEM);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-producer-" + p).start();
+        }
+        long perConsumer = total / consumers;
+        for (int c = 0; c < consumers; c++) {
+            // 最后一个消费者多取余数
+            long quota = c == consumers - 1 ? total - perConsumer * (consumers - 1) : perConsumer;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (long i = 0; i < quota; i++) {
+                        channel.take();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-consumer-" + c).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return total / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private static Channel ring(BoundedQueue<Integer> q) {
+        return new Channel() {
+            @Override
+            public void put(Integer e) throws InterruptedException {
+                q.put(e);
+            }
+
+            @Override
+            public Integer take() throws InterruptedException {
+                return q.take();
+            }
+        };
+    }
+
+    private static Channel blocking(BlockingQueue<Integer> q) {
+        return new Channel() {
+            @Override
+            public void put(Integer e) throws InterruptedException {
+                q.put(e);
+            }
+
+            @Override
+            public Integer take() throws InterruptedException {
+                return q.take();
+            }
+        };
+    }
+
+    private static Channel producerConsumer() {
+        ReentrantLockDemo.ProducerConsumer pc = new ReentrantLockDemo.ProducerConsumer();
+        return new Channel() {
+            @Override
+            public void put(Integer e) throws InterruptedException {
+                pc.produce(e);
+            }
+
+            @Override
+            public Integer take() throws InterruptedException {
+                return pc.consume();
+            }
+        };
+    }
+
+    interface ChannelFactory {
+        Channel create();
+    }
+
+    /**
+     * 预热 2 轮，再测 3 轮取最好成绩
+     */
+    private static void bench(String name, ChannelFactory factory, int producers, int consumers, int perProducer)
+        throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            run(factory.create(), producers, consumers, perProducer / 4);
+        }
+        double best = 0;
+        for (int i = 0; i < 3; i++) {
+            best = Math.max(best, run(factory.create(), producers, consumers, perProducer));
+        }
+        System.out.printf("  %-32s %,14.0f ops/s%n", name, best);
+    }
+
+    public static void benchmark(int capacity, int perProducer) throws InterruptedException {
+        System.out.println("【无锁环形队列 吞吐对比】");
+        System.out.println(repeat("-", 50));
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("CPU 核心数: " + cores + ", 容量: " + capacity + ", 每生产者元素数: " + perProducer);
+        if (cores < 2) {
+            System.out.println("（单核环境：自旋策略会一直空转到时间片用完，跳过 SpinWait）");
+        }
+
+        int[][] shapes = {{1, 1}, {4, 1}, {4, 4}};
+        for (int[] shape : shapes) {
+            int producers = shape[0];
+            int consumers = shape[1];
+            System.out.println("\n" + producers + " 生产者 / " + consumers + " 消费者：");
+
+            // ProducerConsumer 每个元素都打印一行，这里把输出丢弃，只测锁和链表本身；容量固定为 5
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            double pc;
+            try {
+                run(producerConsumer(), producers, consumers, perProducer / 20);
+                pc = run(producerConsumer(), producers, consumers, perProducer / 10);
+            } finally {
+                System.setOut(out);
+            }
+            System.out.printf("  %-32s %,14.0f ops/s%n", "ReentrantLockDemo.ProducerConsumer", pc);
+
+            bench("ArrayBlockingQueue", () -> blocking(new ArrayBlockingQueue<>(capacity)),
+                producers, consumers, perProducer);
+
+            WaitStrategy[] strategies = cores < 2
+                ? new WaitStrategy[] {new YieldWait(), new ParkWait(), new BlockingWait()}
+                : new WaitStrategy[] {new SpinWait(), new YieldWait(), new ParkWait(), new BlockingWait()};
+            for (WaitStrategy strategy : strategies) {
+                String suffix = "(" + strategy.getClass().getSimpleName() + ")";
+                if (producers == 1 && consumers == 1) {
+                    bench("SpscRingQueue " + suffix, () -> ring(new SpscRingQueue<>(capacity, newLike(strategy))),
+                        producers, consumers, perProducer);
+                }
+                if (consumers == 1) {
+                    bench("MpscRingQueue " + suffix, () -> ring(new MpscRingQueue<>(capacity, newLike(strategy))),
+                        producers, consumers, perProducer);
+                }
+                bench("MpmcRingQueue " + suffix, () -> ring(new MpmcRingQueue<>(capacity, newLike(strategy))),
+                    producers, consumers, perProducer);
+            }
+        }
+        System.out.println();
+    }
+
+    // BlockingWait 有状态，每个队列要一个新实例
+    private static WaitStrategy newLike(WaitStrategy strategy) {
+        return strategy instanceof BlockingWait ? new BlockingWait() : strategy;
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[容量] [每生产者元素数]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        System.out.println("=== 无锁有界环形队列 ===\n");
+        benchmark(capacity, perProducer);
+    }
+}
@@ -0,0 +1,419 @@
+package com.example.thread;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 高并发计数器：分段 + 缓存行填充
+ *
+ * ReentrantLockDemo.BasicUsage.increment 每次加一都要拿锁，所有线程串行在一把锁上。
+ * 这里把计数拆到多个互不共享缓存行的 Cell 上，读取时再求和。
+ *
+ * 核心知识点：
+ * 1. EXACT 模式：固定数量的分段 Cell，用 getAndAdd（x86 上是一条 lock xadd）更新，不会丢失任何一次加法，
+ *    和 LongAdder 不同的是不需要 CAS 重试，也不会在竞争时扩容
+ * 2. RELAXED 模式：每个线程独占一个 Cell，只有自己写，用普通读 + release 写，热路径上没有原子指令；
+ *    代价是 sum() 只能看到各线程已发布的值，且每个用过的线程都会占一个 Cell
+ * 3. 批量加：Batch 在线程本地先攒着，攒够再一次性 add，进一步减少共享写
+ * 4. Cell 用类继承前后各填 8 个 long，保证相邻 Cell 的 value 不在同一缓存行
+ *
+ * main 方法是手写的对比（1～64 线程），对比 锁、AtomicLong、LongAdder 和本计数器。
+ *
+ * @author java_learn
+ */
+public class StripedCounter {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // ==================== 1. 模式与填充的 Cell ====================
+
+    public enum Mode {
+        /** 原子加，任何线程的每次 add 都计入，sum() 在更新停止后精确 */
+        EXACT,
+        /** 每线程单写者 Cell，无原子指令；sum() 弱一致 */
+        RELAXED
+    }
+
+    abstract static class CellPadBefore {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class CellValue extends CellPadBefore {
+        volatile long value;
+    }
+
+    static final class Cell extends CellValue {
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(CellValue.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // 每个线程一个固定的分段号，按顺序分配，线程数不超过分段数时互不冲突
+    private static final AtomicInteger NEXT_PROBE = new AtomicInteger();
+    private static final ThreadLocal<Integer> PROBE = ThreadLocal.withInitial(NEXT_PROBE::getAndIncrement);
+
+    private final Mode mode;
+
+    // EXACT：固定分段
+    private final Cell[] stripes;
+    private final int mask;
+
+    // RELAXED：每线程一个 Cell，注册后只增不减
+    private final ThreadLocal<Cell> owned;
+    private volatile Cell[] ownedCells = new Cell[0];
+
+    /**
+     * 默认：EXACT，分段数为 CPU 核数的 2 倍
+     */
+    public StripedCounter() {
+        this(Mode.EXACT, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param mode    计数模式
+     * @param stripes EXACT 模式下的分段数，向上取 2 的幂；RELAXED 模式忽略
+     */
+    public StripedCounter(Mode mode, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes 必须为正数: " + stripes);
+        }
+        this.mode = mode;
+        if (mode == Mode.EXACT) {
+            int n = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+            this.stripes = new Cell[n];
+            for (int i = 0; i < n; i++) {
+                this.stripes[i] = new Cell();
+            }
+            this.mask = n - 1;
+            this.owned = null;
+        } else {
+            this.stripes = null;
+            this.mask = 0;
+            this.owned = ThreadLocal.withInitial(this::register);
+        }
+    }
+
+    private synchronized Cell register() {
+        Cell cell = new Cell();
+        Cell[] cells = Arrays.copyOf(ownedCells, ownedCells.length + 1);
+        cells[cells.length - 1] = cell;
+        ownedCells = cells;
+        return cell;
+    }
+
+    // ==================== 2. 更新与读取 ====================
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        if (mode == Mode.EXACT) {
+            VALUE.getAndAdd(stripes[PROBE.get() & mask], delta);
+        } else {
+            Cell cell = owned.get();
+            // 单写者：普通读即可，release 写保证读者看到完整的值
+            VALUE.setRelease(cell, (long) VALUE.get(cell) + delta);
+        }
+    }
+
+    /**
+     * 各 Cell 之和。更新仍在进行时只是一个近似值
+     */
+    public long sum() {
+        long sum = 0;
+        for (Cell cell : cells()) {
+            sum += (long) VALUE.getAcquire(cell);
+        }
+        return sum;
+    }
+
+    /**
+     * 清零。只应在没有并发更新时调用，否则并发的加法可能被覆盖
+     */
+    public void reset() {
+        for (Cell cell : cells()) {
+            VALUE.setVolatile(cell, 0L);
+        }
+    }
+
+    private Cell[] cells() {
+        return mode == Mode.EXACT ? stripes : ownedCells;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    // ==================== 3. 批量加 ====================
+
+    /**
+     * 单线程使用的本地累加器：攒够 flushEvery 次再写一次共享 Cell。
+     * 未 flush 的部分 sum() 看不到，用完必须 close()（或 flush()）。
+     */
+    public Batch batch(int flushEvery) {
+        return new Batch(this, flushEvery);
+    }
+
+    public static final class Batch implements AutoCloseable {
+        private final StripedCounter counter;
+        private final int flushEvery;
+        private long pending;
+        private int ops;
+
+        Batch(StripedCounter counter, int flushEvery) {
+            if (flushEvery <= 0) {
+                throw new IllegalArgumentException("flushEvery 必须为正数: " + flushEvery);
+            }
+            this.counter = counter;
+            this.flushEvery = flushEvery;
+        }
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long delta) {
+            pending += delta;
+            if (++ops >= flushEvery) {
+                flush();
+            }
+        }
+
+        public void flush() {
+            if (pending != 0) {
+                counter.add(pending);
+                pending = 0;
+            }
+            ops = 0;
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    // ==================== 4. 对比测试 ====================
+
+    /**
+     * 被测计数器：inc() 由多线程并发调用，total() 在结束后读取
+     */
+    interface Subject {
+        void inc();
+
+        long total();
+    }
+
+    private static final class LockCounter implements Subject {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long count;
+
+        @Override
+        public void inc() {
+            lock.lock();
+            try {
+                count++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public long total() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    interface SubjectFactory {
+        Subject create();
+    }
+
+    /**
+     * threads 个线程各加 perThread 次，返回每秒次数；结果不对时直接报错
+     */
+    private static double run(Subject subject, int threads, int perThread) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        subject.inc();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-counter-" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        long expected = (long) threads * perThread;
+        if (subject.total() != expected) {
+            throw new IllegalStateException("计数错误: " + subject.total() + " != " + expected);
+        }
+        return expected / (elapsed / 1e9);
+    }
+
+    private static double best(SubjectFactory factory, int threads, int perThread) throws InterruptedException {
+        run(factory.create(), threads, perThread);
+        double best = 0;
+        for (int i = 0; i < 3; i++) {
+            best = Math.max(best, run(factory.create(), threads, perThread));
+        }
+        return best;
+    }
+
+    private static Subject of(StripedCounter counter) {
+        return new Subject() {
+            @Override
+            public void inc() {
+                counter.increment();
+            }
+
+            @Override
+            public long total() {
+                return counter.sum();
+            }
+        };
+    }
+
+    /**
+     * 每个线程一个 Batch，64 次 flush 一次；线程结束前 flush
+     */
+    private static Subject batched(StripedCounter counter) {
+        ThreadLocal<Batch> batches = ThreadLocal.withInitial(() -> counter.batch(64));
+        return new Subject() {
+            @Override
+            public void inc() {
+                Batch batch = batches.get();
+                batch.increment();
+                // 每线程都是整 64 次，最后一次加法会自动 flush
+            }
+
+            @Override
+            public long total() {
+                return counter.sum();
+            }
+        };
+    }
+
+    /**
+     * BasicUsage.increment 每次都会打印，单独测一个小数量级并把输出丢弃
+     */
+    private static double basicUsage(int threads, int perThread) throws InterruptedException {
+        ReentrantLockDemo.BasicUsage usage = new ReentrantLockDemo.BasicUsage();
+        Subject subject = new Subject() {
+            @Override
+            public void inc() {
+                usage.increment();
+            }
+
+            @Override
+            public long total() {
+                return usage.getCount();
+            }
+        };
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return run(subject, threads, perThread);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    public static void benchmark(int perThread) throws InterruptedException {
+        System.out.println("【高并发计数器 吞吐对比（ops/s）】");
+        System.out.println(repeat("-", 50));
+        System.out.println("CPU 核心数: " + Runtime.getRuntime().availableProcessors()
+            + ", 每线程加法次数: " + perThread + "（须为 64 的倍数）");
+        System.out.printf("%-8s %14s %14s %14s %14s %14s %14s %14s%n",
+            "threads", "BasicUsage", "lock", "AtomicLong", "LongAdder", "EXACT", "RELAXED", "EXACT+batch");
+
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            double basic = basicUsage(threads, Math.max(1, perThread / 1000));
+            double lock = best(LockCounter::new, threads, perThread);
+            double atomic = best(() -> new Subject() {
+                private final AtomicLong value = new AtomicLong();
+
+                @Override
+                public void inc() {
+                    value.incrementAndGet();
+                }
+
+                @Override
+                public long total() {
+                    return value.get();
+                }
+            }, threads, perThread);
+            double adder = best(() -> new Subject() {
+                private final LongAdder value = new LongAdder();
+
+                @Override
+                public void inc() {
+                    value.increment();
+                }
+
+                @Override
+                public long total() {
+                    return value.sum();
+                }
+            }, threads, perThread);
+            double exact = best(() -> of(new StripedCounter()), threads, perThread);
+            double relaxed = best(() -> of(new StripedCounter(Mode.RELAXED, 1)), threads, perThread);
+            double batch = best(() -> batched(new StripedCounter()), threads, perThread);
+            System.out.printf("%-8d %,14.0f %,14.0f %,14.0f %,14.0f %,14.0f %,14.0f %,14.0f%n",
+                threads, basic, lock, atomic, adder, exact, relaxed, batch);
+        }
+        System.out.println();
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[每线程加法次数]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.println("=== 分段高并发计数器 ===\n");
+        benchmark(perThread - perThread % 64);
+    }
+}
@@ -175,6 +175,14 @@ public class ThreadPoolDemo {
             System.out.println("   丢弃队列中最老的任务，然后重新提交");
             testPolicy(new ThreadPoolExecutor.DiscardOldestPolicy(), "DiscardOldestPolicy");
             
+            System.out.println("\n5. BoundedWaitPolicy（RejectionPolicies）");
+            System.out.println("   最多等待 200ms 队列空位，等不到再交给后备策略，并统计每次拒绝");
+            RejectionPolicies.BoundedWaitPolicy wait =
+                new RejectionPolicies.BoundedWaitPolicy("wait-200ms", 200, TimeUnit.MILLISECONDS);
+            testPolicy(wait, "BoundedWaitPolicy");
+            System.out.println("   " + wait.telemetry().outcomes);
+            System.out.println("   更多策略（按优先级丢弃、溢出到备用池、有上限的调用者执行）见 RejectionPolicies");
+            
             System.out.println();
         }
         
@@ -232,7 +240,12 @@ public class ThreadPoolDemo {
             
             System.out.println("\n5. WorkStealingPool (JDK8+) - 工作窃取线程池");
             System.out.println("   基于 ForkJoinPool，适合任务可拆分场景");
-            
+
+            System.out.println("\n6. VirtualThreadPerTaskExecutor (JDK21+) - 虚拟线程");
+            System.out.println("   每个任务一个虚拟线程，适合大量阻塞 IO 任务");
+            System.out.println("   没有池大小兜底，下游并发需用 Semaphore 限制");
+            System.out.println("   见 VirtualThreadExecutors（低版本 JDK 自动退回平台线程池）");
+
             System.out.println("\n【阿里巴巴开发规范】");
             System.out.println("  不推荐使用 Executors 创建线程池！");
             System.out.println("  应使用 ThreadPoolExecutor 自定义参数，避免 OOM");
@@ -300,6 +313,7 @@ public class ThreadPoolDemo {
             System.out.println("   CPU 密集型: 核心数 + 1 = " + (cpuCores + 1));
             System.out.println("   IO 密集型:  核心数 * 2 = " + (cpuCores * 2));
             System.out.println("   混合型:     根据 IO 等待时间/计算时间 比例调整");
+            System.out.println("   以上只是起点，运行时可用 PoolSizeTuner 按吞吐和排队延迟自动调整");
             
             System.out.println("\n2. 队列选择：");
             System.out.println("   ArrayBlockingQueue: 有界队列，推荐");
@@ -332,15 +346,24 @@ public class ThreadPoolDemo {
      */
     public static class ProductionPool {
         
-        public static ThreadPoolExecutor createPool(String poolName, int coreSize, int maxSize, int queueSize) {
-            return new ThreadPoolExecutor(
+        /**
+         * 返回的 ManagedThreadPool 可在运行时调整 core / max / 队列容量，并统计排队、执行、拒绝
+         */
+        public static ManagedThreadPool createPool(String poolName, int coreSize, int maxSize, int queueSize) {
+            return createPool(poolName, coreSize, maxSize, queueSize, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        
+        /**
+         * 指定拒绝策略，例如 RejectionPolicies 中带统计、不会无限卡住提交线程的策略
+         */
+        public static ManagedThreadPool createPool(String poolName, int coreSize, int maxSize, int queueSize,
+                                                   RejectedExecutionHandler handler) {
+            return new ManagedThreadPool(
+                poolName,
                 coreSize,
                 maxSize,
-                60L,
-                TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(queueSize),
-                new CustomThreadFactory(poolName),
-                new ThreadPoolExecutor.CallerRunsPolicy()  // 或自定义拒绝策略
+                queueSize,  // 可调整容量的队列
+                handler
             ) {
                 @Override
                 protected void beforeExecute(Thread t, Runnable r) {
@@ -366,11 +389,24 @@ public class ThreadPoolDemo {
             };
         }
         
+        /**
+         * 工作窃取后端：每个线程一个无锁本地队列 + 有界全局队列，适合海量小任务。
+         * 拒绝策略和线程命名与 createPool 相同
+         */
+        public static WorkStealingExecutor createWorkStealingPool(String poolName, int workers, int queueSize) {
+            return new WorkStealingExecutor(
+                poolName,
+                workers,
+                queueSize,
+                new ThreadPoolExecutor.CallerRunsPolicy()
+            );
+        }
+        
         public static void demo() throws InterruptedException {
             System.out.println("【7. 生产环境线程池示例】");
             System.out.println(repeat("-", 50));
             
-            ThreadPoolExecutor pool = createPool("BizPool", 4, 8, 100);
+            ManagedThreadPool pool = createPool("BizPool", 4, 8, 100);
             
             System.out.println("生产环境线程池已创建：");
             System.out.println("  名称前缀: BizPool");
@@ -389,6 +425,7 @@ public class ThreadPoolDemo {
             
             pool.shutdown();
             pool.awaitTermination(5, TimeUnit.SECONDS);
+            System.out.println(pool.stats());
             System.out.println();
         }
     }
@@ -0,0 +1,449 @@
+package com.example.thread;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 虚拟线程执行器 + 并发限流 + 结构化扇出
+ *
+ * ThreadPoolDemo.CommonPoolTypes 里都是平台线程池，线程数就是并发上限；
+ * JDK 21 的虚拟线程可以"一个任务一个线程"，阻塞时不占平台线程。
+ * 项目以 JDK 11 编译，所以通过反射使用虚拟线程 API，低版本自动退回平台线程池。
+ *
+ * 核心知识点：
+ * 1. newPerTaskExecutor：JDK 21+ 用 Executors.newThreadPerTaskExecutor(虚拟线程工厂)，
+ *    否则退回 ProductionPool.createPool 创建的有界平台线程池（AbortPolicy，满了直接拒绝）
+ * 2. 虚拟线程不再受池大小约束，对下游（数据库连接、远程服务）的并发要用 Semaphore 显式限制：ConcurrencyLimiter
+ * 3. FanOut：一组子任务的扇出 / 扇入，任一失败取消其余，超过截止时间全部取消，
+ *    close() 保证所有子任务都已结束才返回（子任务不会比作用域活得更久）
+ *
+ * @author java_learn
+ */
+public class VirtualThreadExecutors {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    // ==================== 1. 执行器工厂 ====================
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTask = null;
+        // JDK 19/20 里这些 API 是预览特性，不开 --enable-preview 调用会抛异常，所以只认 21+
+        if (Runtime.version().feature() >= 21) {
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+                perTask = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            } catch (ReflectiveOperationException e) {
+                ofVirtual = null;
+            }
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        NEW_THREAD_PER_TASK = perTask;
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * 虚拟线程工厂，线程名为 name-0、name-1 ...；不支持时返回 null
+     */
+    public static ThreadFactory virtualThreadFactory(String name) {
+        if (!virtualThreadsAvailable()) {
+            return null;
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, name + "-", 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程工厂失败", e);
+        }
+    }
+
+    /**
+     * JDK 21+：每个任务一个虚拟线程，没有池也没有队列；
+     * 更低版本：ProductionPool.createPool(name, fallbackThreads, fallbackThreads, fallbackQueue, AbortPolicy)。
+     * 不用默认的 CallerRunsPolicy：它会让 FanOut.fork 在调用线程上同步跑子任务（不受截止时间约束），
+     * 关闭后还会静默丢弃任务，子任务永远不结束，join / close 一直等下去
+     */
+    public static ExecutorService newPerTaskExecutor(String name, int fallbackThreads, int fallbackQueue) {
+        ThreadFactory factory = virtualThreadFactory(name);
+        if (factory != null) {
+            try {
+                return (ExecutorService) NEW_THREAD_PER_TASK.invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("创建虚拟线程执行器失败", e);
+            }
+        }
+        return ThreadPoolDemo.ProductionPool.createPool(name, fallbackThreads, fallbackThreads, fallbackQueue,
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 退回时使用 CPU 核数 * 16 个平台线程、10000 的队列，适合 IO 型任务
+     */
+    public static ExecutorService newPerTaskExecutor(String name) {
+        int threads = Runtime.getRuntime().availableProcessors() * 16;
+        return newPerTaskExecutor(name, threads, 10_000);
+    }
+
+    // ==================== 2. 并发限流 ====================
+
+    /**
+     * 用 Semaphore 限制同时执行的调用数。在任务内部包住对下游的调用：
+     * 虚拟线程在 acquire 上阻塞几乎没有代价，平台线程则会占住一个池线程
+     */
+    public static final class ConcurrencyLimiter {
+        private final Semaphore permits;
+        private final int limit;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder rejected = new LongAdder();
+
+        public ConcurrencyLimiter(int limit) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("limit 必须为正数: " + limit);
+            }
+            this.limit = limit;
+            this.permits = new Semaphore(limit, true);
+        }
+
+        /**
+         * 等到有许可再执行
+         */
+        public <T> T call(Callable<T> body) throws Exception {
+            permits.acquire();
+            return runHolding(body);
+        }
+
+        /**
+         * 最多等 timeout；拿不到许可时抛 RejectedExecutionException 并计数
+         */
+        public <T> T call(Callable<T> body, long timeout, TimeUnit unit) throws Exception {
+            if (!permits.tryAcquire(timeout, unit)) {
+                rejected.increment();
+                throw new RejectedExecutionException("并发已达上限 " + limit + "，等待 " + unit.toMillis(timeout) + "ms 未获得许可");
+            }
+            return runHolding(body);
+        }
+
+        private <T> T runHolding(Callable<T> body) throws Exception {
+            inFlight.incrementAndGet();
+            try {
+                return body.call();
+            } finally {
+                inFlight.decrementAndGet();
+                permits.release();
+            }
+        }
+
+        public int limit() {
+            return limit;
+        }
+
+        public int inFlight() {
+            return inFlight.get();
+        }
+
+        /** 正在等待许可的线程数（估计值） */
+        public int waiting() {
+            return permits.getQueueLength();
+        }
+
+        public long rejected() {
+            return rejected.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "ConcurrencyLimiter{limit=" + limit + ", inFlight=" + inFlight() + ", waiting=" + waiting()
+                + ", rejected=" + rejected() + '}';
+        }
+    }
+
+    // ==================== 3. 结构化扇出 / 扇入 ====================
+
+    /**
+     * 一组子任务的作用域，用 try-with-resources 包住：
+     * <pre>
+     * try (FanOut&lt;String&gt; scope = FanOut.open(executor, 200, TimeUnit.MILLISECONDS)) {
+     *     scope.fork(() -&gt; callA());
+     *     scope.fork(() -&gt; callB());
+     *     List&lt;String&gt; results = scope.join();
+     * }
+     * </pre>
+     * join() 按 fork 的顺序返回结果；任一子任务失败就取消其余并抛出 ExecutionException；
+     * 到截止时间还没完成就取消全部并抛 TimeoutException；等待中被中断同样取消全部。
+     * close() 取消仍在运行的子任务，并等它们真正结束。只能由创建它的线程使用。
+     */
+    public static final class FanOut<T> implements AutoCloseable {
+        private static final int NEW = 0;
+        private static final int STARTED = 1;
+        private static final int FINISHED = 2;
+
+        private final ExecutorService executor;
+        private final long deadlineNanos;
+        private final List<Future<T>> futures = new ArrayList<>();
+        // 每个子任务的状态：NEW -> STARTED -> FINISHED，或取消时 NEW -> FINISHED（从未运行）
+        private final List<AtomicInteger> states = new ArrayList<>();
+        // 完成的子任务下标，由子任务自己放入
+        private final LinkedBlockingQueue<Integer> completed = new LinkedBlockingQueue<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final Object allDone = new Object();
+        private boolean joined;
+
+        private FanOut(ExecutorService executor, long deadlineNanos) {
+            this.executor = executor;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public static <T> FanOut<T> open(ExecutorService executor, long timeout, TimeUnit unit) {
+            return new FanOut<>(executor, System.nanoTime() + unit.toNanos(timeout));
+        }
+
+        public Future<T> fork(Callable<? extends T> task) {
+            if (joined) {
+                throw new IllegalStateException("join 之后不能再 fork");
+            }
+            int index = futures.size();
+            AtomicInteger state = new AtomicInteger(NEW);
+            states.add(state);
+            running.incrementAndGet();
+            Future<T> future;
+            try {
+                future = executor.submit(() -> {
+                    if (!state.compareAndSet(NEW, STARTED)) {
+                        return null;
+                    }
+                    try {
+                        return task.call();
+                    } finally {
+                        finish(state, index);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                states.remove(index);
+                running.decrementAndGet();
+                cancelAll();
+                throw e;
+            }
+            futures.add(future);
+            return future;
+        }
+
+        private void finish(AtomicInteger state, int index) {
+            state.set(FINISHED);
+            completed.add(index);
+            if (running.decrementAndGet() == 0) {
+                synchronized (allDone) {
+                    allDone.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * 等所有子任务成功完成，按 fork 顺序返回结果
+         */
+        public List<T> join() throws InterruptedException, ExecutionException, TimeoutException {
+            joined = true;
+            int remaining = futures.size();
+            try {
+                while (remaining > 0) {
+                    long left = deadlineNanos - System.nanoTime();
+                    Integer index = left > 0 ? completed.poll(left, TimeUnit.NANOSECONDS) : null;
+                    if (index == null) {
+                        cancelAll();
+                        throw new TimeoutException("扇出超过截止时间，仍有 " + remaining + " 个子任务未完成，已取消");
+                    }
+                    remaining--;
+                    try {
+                        futures.get(index).get();
+                    } catch (CancellationException e) {
+                        // 子任务被外部取消：与失败同样处理
+                        cancelAll();
+                        throw new ExecutionException("子任务 " + index + " 被取消", e);
+                    } catch (ExecutionException e) {
+                        cancelAll();
+                        throw e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                cancelAll();
+                throw e;
+            }
+            List<T> results = new ArrayList<>(futures.size());
+            for (Future<T> future : futures) {
+                // 都已完成，get() 不会阻塞
+                results.add(future.get());
+            }
+            return results;
+        }
+
+        private void cancelAll() {
+            for (int i = 0; i < futures.size(); i++) {
+                // 还没开始的子任务不会再运行，由这里替它完成计数
+                if (states.get(i).compareAndSet(NEW, FINISHED)) {
+                    if (running.decrementAndGet() == 0) {
+                        synchronized (allDone) {
+                            allDone.notifyAll();
+                        }
+                    }
+                }
+                futures.get(i).cancel(true);
+            }
+        }
+
+        /**
+         * 取消未完成的子任务并等待它们结束
+         */
+        @Override
+        public void close() {
+            cancelAll();
+            boolean interrupted = false;
+            synchronized (allDone) {
+                while (running.get() > 0) {
+                    try {
+                        allDone.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ==================== 4. 演示 ====================
+
+    public static void demo(int tasks, int limit) throws Exception {
+        System.out.println("【虚拟线程执行器 + 限流 + 结构化扇出】");
+        System.out.println(repeat("-", 50));
+        System.out.println("JDK " + Runtime.version().feature() + "，虚拟线程: "
+            + (virtualThreadsAvailable() ? "可用" : "不可用，退回平台线程池"));
+
+        ExecutorService executor = newPerTaskExecutor("io");
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(limit);
+
+        // 1. 大量阻塞任务，对"下游"的并发限制为 limit
+        CountDownLatch done = new CountDownLatch(tasks);
+        AtomicInteger peak = new AtomicInteger();
+        long begin = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                try {
+                    limiter.call(() -> {
+                        peak.accumulateAndGet(limiter.inFlight(), Math::max);
+                        Thread.sleep(50);
+                        return null;
+                    });
+                } catch (Exception e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        System.out.printf("1. %d 个 50ms 阻塞任务，限流 %d：耗时 %dms，峰值并发 %d%n", tasks, limit,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin), peak.get());
+
+        // 2. 扇出全部成功
+        try (FanOut<String> scope = FanOut.open(executor, 500, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 5; i++) {
+                int id = i;
+                scope.fork(() -> {
+                    Thread.sleep(20 + id * 10);
+                    return "part-" + id;
+                });
+            }
+            System.out.println("2. 扇出 5 个子任务，结果: " + scope.join());
+        }
+
+        // 3. 一个失败，其余被取消
+        AtomicInteger cancelled = new AtomicInteger();
+        try (FanOut<String> scope = FanOut.open(executor, 500, TimeUnit.MILLISECONDS)) {
+            scope.fork(() -> {
+                Thread.sleep(10);
+                throw new IllegalStateException("下游 503");
+            });
+            for (int i = 0; i < 3; i++) {
+                scope.fork(() -> {
+                    try {
+                        Thread.sleep(1_000);
+                        return "slow";
+                    } catch (InterruptedException e) {
+                        cancelled.incrementAndGet();
+                        throw e;
+                    }
+                });
+            }
+            scope.join();
+        } catch (ExecutionException e) {
+            System.out.println("3. 子任务失败: " + e.getCause().getMessage() + "，被取消的兄弟任务: " + cancelled.get());
+        }
+
+        // 4. 超过截止时间
+        try (FanOut<String> scope = FanOut.open(executor, 100, TimeUnit.MILLISECONDS)) {
+            scope.fork(() -> "fast");
+            scope.fork(() -> {
+                Thread.sleep(1_000);
+                return "slow";
+            });
+            scope.join();
+        } catch (TimeoutException e) {
+            System.out.println("4. " + e.getMessage());
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println();
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[任务数] [并发上限]
+     */
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        System.out.println("=== 虚拟线程与结构化并发 ===\n");
+        demo(tasks, limit);
+    }
+}
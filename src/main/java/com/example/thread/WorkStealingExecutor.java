@@ -0,0 +1,794 @@
+package com.example.thread;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 工作窃取执行器：每个工作线程一个无锁双端队列
+ *
+ * ProductionPool 的所有任务都经过同一个有锁队列，提交和取任务都在抢这把锁；
+ * 任务只有几百纳秒时，锁的开销就成了瓶颈。
+ *
+ * 核心知识点：
+ * 1. 每个工作线程一个 Chase-Lev 双端队列：自己在底部 push/pop（LIFO，缓存热），
+ *    其他线程从顶部窃取（FIFO，先偷最老、通常也是最大的任务），只有争最后一个元素时才 CAS
+ * 2. 外部线程提交、以及本地队列满时，进入一个有界的全局队列（RingBufferQueues.MpmcRingQueue，无锁）
+ * 3. 取任务顺序：本地 → 全局 → 随机选一个受害者窃取 → 停车；提交时若有线程停车就唤醒一个
+ * 4. 全局队列也满时交给 RejectedExecutionHandler，现有的 CallerRuns / Abort / Discard / DiscardOldest 都能直接用
+ *    （通过一个只读的 ThreadPoolExecutor 外观传给它们）
+ * 5. 线程由 ThreadPoolDemo.CustomThreadFactory 创建，命名与 ProductionPool 一致
+ * 6. 空闲不是纯阻塞：停车的线程每 10ms 醒来一次，扫一遍所有双端队列和全局队列，
+ *    所以空闲的池也有少量周期性 CPU 占用（用来兜住与提交方错过唤醒的情况）
+ *
+ * @author java_learn
+ */
+public class WorkStealingExecutor extends AbstractExecutorService {
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /** 每个工作线程本地队列的默认容量 */
+    public static final int DEFAULT_LOCAL_CAPACITY = 4096;
+
+    // ==================== 1. Chase-Lev 双端队列 ====================
+
+    abstract static class DequePadTop {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class DequeTop extends DequePadTop {
+        volatile long top;
+    }
+
+    abstract static class DequePadBottom extends DequeTop {
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    abstract static class DequeBottom extends DequePadBottom {
+        volatile long bottom;
+    }
+
+    /**
+     * 固定容量的 Chase-Lev 双端队列。push/pop 只能由所有者线程调用，steal 可以任意线程调用
+     */
+    static final class WorkDeque extends DequeBottom {
+        long p20, p21, p22, p23, p24, p25, p26, p27;
+
+        private static final VarHandle TOP;
+        private static final VarHandle BOTTOM;
+        private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Runnable[].class);
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                TOP = lookup.findVarHandle(DequeTop.class, "top", long.class);
+                BOTTOM = lookup.findVarHandle(DequeBottom.class, "bottom", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Runnable[] slots;
+        private final int mask;
+
+        WorkDeque(int capacity) {
+            int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.slots = new Runnable[n];
+            this.mask = n - 1;
+        }
+
+        /** 所有者：压到底部；满了返回 false */
+        boolean push(Runnable task) {
+            long b = (long) BOTTOM.getOpaque(this);
+            long t = (long) TOP.getAcquire(this);
+            if (b - t > mask) {
+                return false;
+            }
+            SLOT.setRelease(slots, (int) (b & mask), task);
+            BOTTOM.setRelease(this, b + 1);
+            return true;
+        }
+
+        /** 所有者：从底部弹出（LIFO） */
+        Runnable pop() {
+            long b = (long) BOTTOM.getOpaque(this) - 1;
+            // 先声明要拿 b，再读 top；这里需要 StoreLoad 屏障，所以用 volatile 写
+            BOTTOM.setVolatile(this, b);
+            long t = (long) TOP.getVolatile(this);
+            if (t > b) {
+                // 空
+                BOTTOM.setOpaque(this, b + 1);
+                return null;
+            }
+            int i = (int) (b & mask);
+            Runnable task = (Runnable) SLOT.getAcquire(slots, i);
+            if (t == b) {
+                // 最后一个元素：与窃取者竞争
+                if (!TOP.compareAndSet(this, t, t + 1)) {
+                    task = null;
+                }
+                BOTTOM.setOpaque(this, b + 1);
+                return task;
+            }
+            SLOT.setRelease(slots, i, null);
+            return task;
+        }
+
+        /** 任意线程：从顶部窃取（FIFO）；竞争失败或为空返回 null */
+        Runnable steal() {
+            long t = (long) TOP.getAcquire(this);
+            long b = (long) BOTTOM.getAcquire(this);
+            if (t >= b) {
+                return null;
+            }
+            Runnable task = (Runnable) SLOT.getAcquire(slots, (int) (t & mask));
+            return TOP.compareAndSet(this, t, t + 1) ? task : null;
+        }
+
+        boolean isEmpty() {
+            return (long) TOP.getAcquire(this) >= (long) BOTTOM.getAcquire(this);
+        }
+
+        int size() {
+            return (int) Math.max(0, (long) BOTTOM.getAcquire(this) - (long) TOP.getAcquire(this));
+        }
+    }
+
+    // ==================== 2. 执行器状态 ====================
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private final String poolName;
+    private final Worker[] workers;
+    private final RingBufferQueues.MpmcRingQueue<Runnable> global;
+    private final GlobalQueueView globalView;
+    private final RejectionFacade facade;
+    private volatile RejectedExecutionHandler handler;
+    private volatile int runState = RUNNING;
+    private final CountDownLatch terminated;
+
+    // 工作线程启动时登记自己，外部线程上为 null
+    private final ThreadLocal<Worker> self = new ThreadLocal<>();
+    private final LongAdder idleWorkers = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param poolName      线程名前缀（CustomThreadFactory）
+     * @param workers       工作线程数
+     * @param queueCapacity 全局队列容量
+     * @param localCapacity 每个工作线程本地队列的容量
+     * @param handler       全局队列满或已关闭时的拒绝策略
+     */
+    public WorkStealingExecutor(String poolName, int workers, int queueCapacity, int localCapacity,
+                                RejectedExecutionHandler handler) {
+        if (workers <= 0 || queueCapacity < 2 || localCapacity < 2) {
+            throw new IllegalArgumentException("非法的参数: workers=" + workers + ", queueCapacity=" + queueCapacity
+                + ", localCapacity=" + localCapacity);
+        }
+        if (handler == null) {
+            throw new NullPointerException();
+        }
+        this.poolName = poolName;
+        this.handler = handler;
+        this.global = new RingBufferQueues.MpmcRingQueue<>(queueCapacity, new RingBufferQueues.ParkWait());
+        this.globalView = new GlobalQueueView();
+        this.facade = new RejectionFacade();
+        this.terminated = new CountDownLatch(workers);
+        this.workers = new Worker[workers];
+        ThreadFactory factory = new ThreadPoolDemo.CustomThreadFactory(poolName);
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker(i, localCapacity);
+            this.workers[i].thread = factory.newThread(this.workers[i]);
+        }
+        for (Worker worker : this.workers) {
+            worker.thread.start();
+        }
+    }
+
+    public WorkStealingExecutor(String poolName, int workers, int queueCapacity, RejectedExecutionHandler handler) {
+        this(poolName, workers, queueCapacity, DEFAULT_LOCAL_CAPACITY, handler);
+    }
+
+    public String poolName() {
+        return poolName;
+    }
+
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException();
+        }
+        this.handler = handler;
+    }
+
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return handler;
+    }
+
+    // ==================== 3. 提交 ====================
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (runState != RUNNING) {
+            reject(command);
+            return;
+        }
+        Worker self = currentWorker();
+        if (self != null && self.deque.push(command)) {
+            self.pushedLocal++;
+        } else if (!global.offer(command)) {
+            reject(command);
+            return;
+        }
+        signalWork();
+    }
+
+    private Worker currentWorker() {
+        return self.get();
+    }
+
+    private void reject(Runnable command) {
+        rejected.increment();
+        handler.rejectedExecution(command, facade);
+    }
+
+    /**
+     * 有线程停车时唤醒一个。先发布任务再读 idleWorkers，停车方先登记再检查队列，两边不会错过
+     */
+    private void signalWork() {
+        if (idleWorkers.sum() == 0) {
+            return;
+        }
+        int n = workers.length;
+        int start = ThreadLocalRandom.current().nextInt(n);
+        for (int k = 0; k < n; k++) {
+            Worker w = workers[(start + k) % n];
+            if (w.parked && w.wake()) {
+                return;
+            }
+        }
+    }
+
+    // ==================== 4. 工作线程 ====================
+
+    final class Worker implements Runnable {
+        final int index;
+        final WorkDeque deque;
+        Thread thread;
+        volatile boolean parked;
+
+        // 只有本线程写；读取时允许轻微滞后
+        long pushedLocal;
+        long ranLocal;
+        long ranGlobal;
+        long ranStolen;
+        long parks;
+
+        Worker(int index, int localCapacity) {
+            this.index = index;
+            this.deque = new WorkDeque(localCapacity);
+        }
+
+        boolean wake() {
+            if (parked) {
+                parked = false;
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            self.set(this);
+            try {
+                while (runState != STOP) {
+                    Runnable task = deque.pop();
+                    if (task != null) {
+                        ranLocal++;
+                    } else if ((task = global.poll()) != null) {
+                        ranGlobal++;
+                    } else if ((task = stealFromOthers()) != null) {
+                        ranStolen++;
+                    } else if (runState == SHUTDOWN && allQueuesEmpty()) {
+                        break;
+                    } else {
+                        idle();
+                        continue;
+                    }
+                    runTask(task);
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        private Runnable stealFromOthers() {
+            int n = workers.length;
+            if (n == 1) {
+                return null;
+            }
+            int start = ThreadLocalRandom.current().nextInt(n);
+            // 两轮：第一轮窃取可能因竞争失败
+            for (int round = 0; round < 2; round++) {
+                for (int k = 0; k < n; k++) {
+                    Worker victim = workers[(start + k) % n];
+                    if (victim != this && !victim.deque.isEmpty()) {
+                        Runnable task = victim.deque.steal();
+                        if (task != null) {
+                            return task;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void idle() {
+            parked = true;
+            idleWorkers.increment();
+            try {
+                // 登记之后再检查一次，避免与提交方错过
+                if (!allQueuesEmpty() || runState != RUNNING) {
+                    return;
+                }
+                parks++;
+                while (parked && runState == RUNNING) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                    if (!allQueuesEmpty()) {
+                        break;
+                    }
+                }
+            } finally {
+                parked = false;
+                idleWorkers.decrement();
+            }
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // 与 ProductionPool.afterExecute 一致：打印后继续，工作线程不退出
+                System.err.println("任务执行异常: " + t.getMessage());
+            }
+            // 清掉任务里可能留下的中断标记；STOP 时的中断由循环条件处理
+            if (runState != STOP) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private boolean allQueuesEmpty() {
+        if (global.size() > 0) {
+            return false;
+        }
+        for (Worker w : workers) {
+            if (!w.deque.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ==================== 5. 关闭 ====================
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (runState == RUNNING) {
+                runState = SHUTDOWN;
+            }
+        }
+        wakeAll();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        synchronized (this) {
+            runState = STOP;
+        }
+        for (Worker w : workers) {
+            w.thread.interrupt();
+        }
+        wakeAll();
+        List<Runnable> pending = new ArrayList<>();
+        Runnable task;
+        while ((task = global.poll()) != null) {
+            pending.add(task);
+        }
+        for (Worker w : workers) {
+            while ((task = w.deque.steal()) != null || !w.deque.isEmpty()) {
+                if (task != null) {
+                    pending.add(task);
+                }
+            }
+        }
+        return pending;
+    }
+
+    private void wakeAll() {
+        for (Worker w : workers) {
+            w.parked = false;
+            LockSupport.unpark(w.thread);
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    // ==================== 6. 拒绝策略适配 ====================
+
+    /**
+     * JDK 的拒绝策略签名要求 ThreadPoolExecutor。这个外观从不启动线程：
+     * isShutdown / execute / getQueue 都转给外层执行器，
+     * 所以 CallerRunsPolicy（检查 isShutdown）和 DiscardOldestPolicy（getQueue().poll() 再 execute）照常工作
+     */
+    private final class RejectionFacade extends ThreadPoolExecutor {
+        RejectionFacade() {
+            super(0, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return WorkStealingExecutor.this.isShutdown();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            WorkStealingExecutor.this.execute(command);
+        }
+
+        @Override
+        public BlockingQueue<Runnable> getQueue() {
+            return globalView;
+        }
+
+        @Override
+        public String toString() {
+            return WorkStealingExecutor.this.toString();
+        }
+    }
+
+    /**
+     * 全局队列的 BlockingQueue 视图，给拒绝策略用。peek / 遍历 / remove 都是弱一致的：
+     * 遍历的是一份快照，remove 按引用移除还没被工作线程取走的任务
+     */
+    private final class GlobalQueueView extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+        // 带超时的 offer / poll：先短暂自旋，之后每次最多停车这么久再重试
+        private static final int TIMED_SPINS = 64;
+        private static final long TIMED_PARK_NANOS = 50_000;
+
+        @Override
+        public boolean offer(Runnable r) {
+            return global.offer(r);
+        }
+
+        @Override
+        public Runnable poll() {
+            return global.poll();
+        }
+
+        @Override
+        public Runnable peek() {
+            return global.peek();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return global.remove(o);
+        }
+
+        @Override
+        public Iterator<Runnable> iterator() {
+            Iterator<Runnable> snapshot = global.snapshot().iterator();
+            return new Iterator<Runnable>() {
+                private Runnable last;
+
+                @Override
+                public boolean hasNext() {
+                    return snapshot.hasNext();
+                }
+
+                @Override
+                public Runnable next() {
+                    last = snapshot.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    global.remove(last);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return global.size();
+        }
+
+        @Override
+        public void put(Runnable r) throws InterruptedException {
+            global.put(r);
+        }
+
+        @Override
+        public boolean offer(Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (int tries = 0; !global.offer(r); tries++) {
+                if (!pause(tries, deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            return global.take();
+        }
+
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            Runnable r;
+            for (int tries = 0; (r = global.poll()) == null; tries++) {
+                if (!pause(tries, deadline)) {
+                    return null;
+                }
+            }
+            return r;
+        }
+
+        /**
+         * 超时前等一会儿再重试：前几次自旋，之后 parkNanos，不在整个超时内空转占核
+         *
+         * @return false 表示已经超时
+         */
+        private boolean pause(int tries, long deadline) throws InterruptedException {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (tries < TIMED_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(Math.min(remaining, TIMED_PARK_NANOS));
+            }
+            return true;
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return global.capacity() - global.size();
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> c, int maxElements) {
+            int n = 0;
+            Runnable r;
+            while (n < maxElements && (r = global.poll()) != null) {
+                c.add(r);
+                n++;
+            }
+            return n;
+        }
+    }
+
+    // ==================== 7. 统计 ====================
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 每个工作线程：本地压入 / 本地执行 / 全局执行 / 窃取执行 / 停车次数，以及当前队列长度
+     */
+    public String stats() {
+        StringBuilder sb = new StringBuilder(poolName).append(": global=").append(global.size())
+            .append('/').append(global.capacity()).append(" rejected=").append(rejectedCount()).append('\n');
+        for (Worker w : workers) {
+            sb.append("  ").append(w.thread.getName())
+              .append(" local=").append(w.deque.size())
+              .append(" pushed=").append(w.pushedLocal)
+              .append(" ranLocal=").append(w.ranLocal)
+              .append(" ranGlobal=").append(w.ranGlobal)
+              .append(" stolen=").append(w.ranStolen)
+              .append(" parks=").append(w.parks)
+              .append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "WorkStealingExecutor[" + poolName + ", workers=" + workers.length + ", global=" + global.size()
+            + "/" + global.capacity() + ", state=" + stateName() + "]";
+    }
+
+    private String stateName() {
+        if (isTerminated()) {
+            return "TERMINATED";
+        }
+        switch (runState) {
+            case RUNNING:
+                return "RUNNING";
+            case SHUTDOWN:
+                return "SHUTDOWN";
+            default:
+                return "STOP";
+        }
+    }
+
+    // ==================== 8. 对比测试 ====================
+
+    /**
+     * 外部线程提交大量空任务
+     */
+    private static double externalSubmit(AbstractExecutorService pool, int submitters, int perSubmitter)
+        throws InterruptedException {
+        long total = (long) submitters * perSubmitter;
+        LongAdder done = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch submitted = new CountDownLatch(submitters);
+        Runnable task = done::increment;
+        for (int s = 0; s < submitters; s++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perSubmitter; i++) {
+                        pool.execute(task);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    submitted.countDown();
+                }
+            }, "bench-submitter-" + s).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        submitted.await();
+        while (done.sum() < total) {
+            Thread.onSpinWait();
+        }
+        return total / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * 任务内部递归派生子任务（二叉树），每个叶子几乎不做事
+     */
+    private static double forkTree(AbstractExecutorService pool, int depth) throws InterruptedException {
+        long total = (1L << (depth + 1)) - 1;
+        LongAdder done = new LongAdder();
+        long begin = System.nanoTime();
+        pool.execute(new TreeTask(pool, depth, done));
+        while (done.sum() < total) {
+            Thread.sleep(1);
+        }
+        return total / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private static final class TreeTask implements Runnable {
+        private final AbstractExecutorService pool;
+        private final int depth;
+        private final LongAdder done;
+
+        TreeTask(AbstractExecutorService pool, int depth, LongAdder done) {
+            this.pool = pool;
+            this.depth = depth;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            if (depth > 0) {
+                pool.execute(new TreeTask(pool, depth - 1, done));
+                pool.execute(new TreeTask(pool, depth - 1, done));
+            }
+            done.increment();
+        }
+    }
+
+    public static void benchmark(int workers, int submitters, int perSubmitter, int treeDepth)
+        throws InterruptedException {
+        System.out.println("【工作窃取 vs 单队列线程池（tasks/s）】");
+        System.out.println(repeat("-", 50));
+        System.out.println("CPU 核心数: " + Runtime.getRuntime().availableProcessors() + ", 工作线程: " + workers
+            + ", 提交线程: " + submitters + ", 每线程提交: " + perSubmitter + ", 派生树深度: " + treeDepth);
+        int queue = 1 << 16;
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "（预热）" : "";
+            ThreadPoolExecutor abq = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), new ThreadPoolDemo.CustomThreadFactory("Abq"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+            ManagedThreadPool managed = ThreadPoolDemo.ProductionPool.createPool("Prod", workers, workers, queue);
+            WorkStealingExecutor stealing = ThreadPoolDemo.ProductionPool.createWorkStealingPool("Steal", workers, queue);
+
+            System.out.printf("%-36s %,14.0f %,14.0f%n", "ArrayBlockingQueue 线程池" + label,
+                externalSubmit(abq, submitters, perSubmitter), forkTree(abq, treeDepth));
+            System.out.printf("%-36s %,14.0f %,14.0f%n", "ProductionPool.createPool" + label,
+                externalSubmit(managed, submitters, perSubmitter), forkTree(managed, treeDepth));
+            System.out.printf("%-36s %,14.0f %,14.0f%n", "WorkStealingExecutor" + label,
+                externalSubmit(stealing, submitters, perSubmitter), forkTree(stealing, treeDepth));
+            if (round == 1) {
+                System.out.println();
+                System.out.print(stealing.stats());
+            }
+
+            abq.shutdown();
+            managed.shutdown();
+            stealing.shutdown();
+            abq.awaitTermination(10, TimeUnit.SECONDS);
+            managed.awaitTermination(10, TimeUnit.SECONDS);
+            stealing.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        System.out.println("（列：外部提交、任务内派生）");
+        System.out.println();
+    }
+
+    // ==================== 主方法 ====================
+
+    /**
+     * 参数：[工作线程数] [提交线程数] [每线程提交数] [派生树深度]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2, Runtime.getRuntime().availableProcessors());
+        int submitters = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int perSubmitter = args.length > 2 ? Integer.parseInt(args[2]) : 500_000;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        System.out.println("=== 工作窃取执行器 ===\n");
+        benchmark(workers, submitters, perSubmitter, depth);
+    }
+}